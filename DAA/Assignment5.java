@@ -1,184 +1,4012 @@
-import java.util.*;
-
-import java.util.stream.*;
-
-class Node {
-    final int id;
-    final int stage;
-    Node(int id, int stage){ this.id = id; this.stage = stage; }
-    public String toString(){ return "N"+id+"(S"+stage+")"; }
-}
-
-class Edge {
-    final int from, to;
-    double cost;        // cost metric (could be time, fuel cost, etc)
-    double travelTime;  // optional separate metric
-    Edge(int f,int t,double c,double tt){ from=f; to=t; cost=c; travelTime=tt; }
-}
-
-class Graph {
-    final Map<Integer, Node> nodes = new HashMap<>();
-    final Map<Integer, List<Edge>> adj = new HashMap<>();
-    final Map<Integer, List<Integer>> stageNodes = new HashMap<>();
-
-    void addNode(int id, int stage){
-        Node n = new Node(id, stage);
-        nodes.put(id, n);
-        stageNodes.computeIfAbsent(stage, k->new ArrayList<>()).add(id);
-        adj.computeIfAbsent(id, k->new ArrayList<>());
-    }
-
-    void addEdge(int from, int to, double cost, double time){
-        if(!nodes.containsKey(from) || !nodes.containsKey(to)) throw new RuntimeException("Unknown node");
-        Edge e = new Edge(from,to,cost,time);
-        adj.get(from).add(e);
-    }
-
-    void updateEdgeCost(int from, int to, double newCost){
-        List<Edge> edges = adj.getOrDefault(from, Collections.emptyList());
-        for(Edge e: edges) if(e.to==to) e.cost = newCost;
-    }
-
-    // DP for multistage graph: assumes every path must move from source.stage .. dest.stage
-    // edges may go to any later stage (>= current stage+1). Complexity ~ sum(edges between stages)
-    Result findMinCostRouteDP(int sourceId, int destId){
-        Node s = nodes.get(sourceId), d = nodes.get(destId);
-        if(s==null || d==null) return Result.empty("invalid nodes");
-        if(s.stage > d.stage) return Result.empty("source after dest");
-
-        // sorted stage list from s.stage to d.stage
-        int start = s.stage, end = d.stage;
-        Map<Integer, Double> dp = new HashMap<>();
-        Map<Integer, Integer> parent = new HashMap<>();
-        for(Integer id: nodes.keySet()) dp.put(id, Double.POSITIVE_INFINITY);
-        dp.put(sourceId, 0.0);
-
-        for(int st = start; st <= end; st++){
-            List<Integer> currStageNodes = stageNodes.getOrDefault(st, Collections.emptyList());
-            for(int uId : currStageNodes){
-                double costU = dp.getOrDefault(uId, Double.POSITIVE_INFINITY);
-                if(costU==Double.POSITIVE_INFINITY) continue;
-                for(Edge e: adj.getOrDefault(uId, Collections.emptyList())){
-                    Node toNode = nodes.get(e.to);
-                    if(toNode.stage < st) continue; // do not go backwards
-                    // ensure we progress to later stage or stay allowed? we allow same-stage forward edges if present
-                    double nc = costU + e.cost;
-                    if(nc < dp.get(e.to)){
-                        dp.put(e.to, nc);
-                        parent.put(e.to, uId);
-                    }
-                }
-            }
-        }
-
-        double finalCost = dp.getOrDefault(destId, Double.POSITIVE_INFINITY);
-        if(finalCost==Double.POSITIVE_INFINITY) return Result.empty("no path");
-        // reconstruct path
-        LinkedList<Integer> path = new LinkedList<>();
-        int cur = destId;
-        while(cur!=sourceId){
-            path.addFirst(cur);
-            cur = parent.getOrDefault(cur, -1);
-            if(cur==-1) return Result.empty("reconstruction failed");
-        }
-        path.addFirst(sourceId);
-        return new Result(finalCost, path);
-    }
-
-    // Dijkstra for arbitrary graph (no stage constraint). Use when stages are not strict or graph is dense.
-    Result findShortestPathDijkstra(int sourceId, int destId){
-        if(!nodes.containsKey(sourceId) || !nodes.containsKey(destId)) return Result.empty("invalid nodes");
-        Map<Integer, Double> dist = new HashMap<>();
-        Map<Integer, Integer> parent = new HashMap<>();
-        for(Integer id: nodes.keySet()) dist.put(id, Double.POSITIVE_INFINITY);
-        dist.put(sourceId, 0.0);
-        PriorityQueue<int[]> pq = new PriorityQueue<>(Comparator.comparingDouble(a->a[1]));
-        pq.add(new int[]{sourceId,0});
-        while(!pq.isEmpty()){
-            int[] cur = pq.poll(); int u = cur[0];
-            double dU = dist.get(u);
-            for(Edge e: adj.getOrDefault(u, Collections.emptyList())){
-                double nd = dU + e.cost;
-                if(nd < dist.get(e.to)){
-                    dist.put(e.to, nd);
-                    parent.put(e.to, u);
-                    pq.add(new int[]{e.to, 0}); // weight handled via dist map
-                }
-            }
-        }
-        double fc = dist.getOrDefault(destId, Double.POSITIVE_INFINITY);
-        if(fc==Double.POSITIVE_INFINITY) return Result.empty("no path");
-        LinkedList<Integer> path = new LinkedList<>();
-        int cur = destId;
-        while(cur!=sourceId){
-            path.addFirst(cur);
-            cur = parent.getOrDefault(cur, -1);
-            if(cur==-1) break;
-        }
-        path.addFirst(sourceId);
-        return new Result(fc, path);
-    }
-
-    // Batch processing with parallel stream (thread-safe read-only)
-    List<Result> processBatchRequests(List<Query> queries){
-        return queries.parallelStream()
-                .map(q -> {
-                    if(q.enforceStages) return findMinCostRouteDP(q.src, q.dst);
-                    else return findShortestPathDijkstra(q.src, q.dst);
-                })
-                .collect(Collectors.toList());
-    }
-
-    static class Result {
-        final boolean ok;
-        final double cost;
-        final List<Integer> path;
-        final String message;
-        Result(double cost, List<Integer> path){ this.ok=true; this.cost=cost; this.path=path; this.message="ok"; }
-        Result(boolean ok, double cost, List<Integer> p, String msg){ this.ok=ok; this.cost=cost; this.path=p; this.message=msg; }
-        static Result empty(String msg){ return new Result(false, Double.POSITIVE_INFINITY, Collections.emptyList(), msg); }
-        public String toString(){ if(!ok) return "NO_PATH: "+message; return "cost="+cost+" path="+path; }
-    }
-
-    static class Query { final int src, dst; final boolean enforceStages; Query(int s,int d, boolean e){ src=s; dst=d; enforceStages=e; } }
-}
-
-public class Assignment5 {
-    public static void main(String[] args) {
-        Graph g = new Graph();
-
-        // create nodes across 4 stages: 0(source stage),1,2,3(dest stage)
-        g.addNode(1,0); g.addNode(2,1); g.addNode(3,1); g.addNode(4,2); g.addNode(5,2); g.addNode(6,3);
-
-        // add edges: from->to, cost, travelTime (time optional)
-        g.addEdge(1,2,5,10); g.addEdge(1,3,6,12);
-        g.addEdge(2,4,4,8); g.addEdge(2,5,7,14);
-        g.addEdge(3,4,3,6); g.addEdge(3,5,5,10);
-        g.addEdge(4,6,6,12); g.addEdge(5,6,4,9);
-
-        // alternative direct leap skipping a stage (allowed but must still progress)
-        g.addEdge(1,4,12,24); // costlier but possible
-
-        // DP that enforces passing nodes in each stage
-        Graph.Result r1 = g.findMinCostRouteDP(1,6);
-        System.out.println("DP multistage route: " + r1);
-
-        // Dijkstra (no stage constraint)
-        Graph.Result r2 = g.findShortestPathDijkstra(1,6);
-        System.out.println("Dijkstra route: " + r2);
-
-        // simulate real-time update: road closure increases cost of edge 3->4
-        g.updateEdgeCost(3,4, 20.0);
-        Graph.Result r3 = g.findMinCostRouteDP(1,6);
-        System.out.println("After update DP route: " + r3);
-
-        // Batch requests
-        List<Graph.Query> qs = Arrays.asList(
-            new Graph.Query(1,6,true),
-            new Graph.Query(1,6,false)
-        );
-        List<Graph.Result> batchRes = g.processBatchRequests(qs);
-        System.out.println("Batch results: "+batchRes);
-    }
-}
-
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Supplier;
+
+import java.util.stream.*;
+
+class Node {
+    final int id;
+    final int stage;
+    Node(int id, int stage){ this.id = id; this.stage = stage; }
+    public String toString(){ return "N"+id+"(S"+stage+")"; }
+}
+
+class Edge {
+    final int from, to;
+    double cost;        // cost metric (could be time, fuel cost, etc)
+    double travelTime;  // optional separate metric
+    Edge(int f,int t,double c,double tt){ from=f; to=t; cost=c; travelTime=tt; }
+}
+
+// Priority queue of node indices for Dijkstra-style searches: push inserts or lowers a key.
+interface NodeQueue {
+    void push(int v, double key);
+    int pop();
+    boolean isEmpty();
+    void clear();
+}
+
+// Indexed 4-ary min-heap over primitive node indices 0..n-1 with decrease-key.
+// pos[v] is v's slot in the heap, or -1 when v is not queued.
+class DHeap implements NodeQueue {
+    private static final int D = 4;
+    private final int[] heap, pos;
+    private final double[] key;
+    private int size;
+
+    DHeap(int n){
+        heap = new int[n];
+        pos = new int[n];
+        key = new double[n];
+        Arrays.fill(pos, -1);
+    }
+
+    public boolean isEmpty(){ return size==0; }
+
+    // empty the heap in O(size), leaving pos[] clean for the next query
+    public void clear(){
+        for(int i = 0; i < size; i++) pos[heap[i]] = -1;
+        size = 0;
+    }
+    double minKey(){ return key[heap[0]]; }
+
+    // insert v, or lower its key if already queued (a larger key is ignored)
+    public void push(int v, double k){
+        int i = pos[v];
+        if(i < 0){
+            i = size++;
+            heap[i] = v;
+            pos[v] = i;
+        } else if(k >= key[v]) return;
+        key[v] = k;
+        siftUp(i);
+    }
+
+    // set v's key to k whether it goes up or down
+    void update(int v, double k){
+        int i = pos[v];
+        if(i < 0 || k < key[v]){ push(v, k); return; }
+        key[v] = k;
+        siftDown(i);
+    }
+
+    public int pop(){
+        int top = heap[0];
+        pos[top] = -1;
+        int last = heap[--size];
+        if(size > 0){
+            heap[0] = last;
+            pos[last] = 0;
+            siftDown(0);
+        }
+        return top;
+    }
+
+    private void siftUp(int i){
+        int v = heap[i];
+        double k = key[v];
+        while(i > 0){
+            int p = (i-1)/D;
+            int pv = heap[p];
+            if(key[pv] <= k) break;
+            heap[i] = pv; pos[pv] = i;
+            i = p;
+        }
+        heap[i] = v; pos[v] = i;
+    }
+
+    private void siftDown(int i){
+        int v = heap[i];
+        double k = key[v];
+        while(true){
+            int first = i*D+1;
+            if(first >= size) break;
+            int best = first;
+            int last = Math.min(first+D, size);
+            for(int c = first+1; c < last; c++) if(key[heap[c]] < key[heap[best]]) best = c;
+            int bv = heap[best];
+            if(key[bv] >= k) break;
+            heap[i] = bv; pos[bv] = i;
+            i = best;
+        }
+        heap[i] = v; pos[v] = i;
+    }
+}
+
+// Dial's bucket queue for integral keys with arc weights in [0, maxWeight]. Keys must not drop below the
+// last key popped (true for Dijkstra from a source at 0), so queued keys lie in [last, last + maxWeight]
+// and maxWeight + 1 cyclic buckets suffice; each bucket is a doubly linked
+// list through next/prev, which makes decrease-key an O(1) unlink and relink.
+class DialQueue implements NodeQueue {
+    private final int[] head, next, prev, where;
+    private final long[] key;
+    private final int span;
+    private long last;
+    private int size;
+
+    DialQueue(int n, int maxWeight){
+        span = maxWeight + 1;
+        head = new int[span];
+        next = new int[n];
+        prev = new int[n];
+        where = new int[n];
+        key = new long[n];
+        Arrays.fill(head, -1);
+        Arrays.fill(where, -1);
+    }
+
+    boolean fits(int n, double maxWeight){ return where.length >= n && maxWeight < span; }
+
+    public boolean isEmpty(){ return size==0; }
+
+    public void push(int v, double k){
+        long lk = (long)k;
+        if(where[v] >= 0){
+            if(lk >= key[v]) return;
+            unlink(v);
+        }
+        key[v] = lk;
+        int b = (int)(lk % span);
+        where[v] = b;
+        prev[v] = -1;
+        next[v] = head[b];
+        if(head[b] >= 0) prev[head[b]] = v;
+        head[b] = v;
+        size++;
+    }
+
+    public int pop(){
+        int b = (int)(last % span);
+        while(head[b] < 0){ last++; b = (int)(last % span); }
+        int v = head[b];
+        unlink(v);
+        return v;
+    }
+
+    private void unlink(int v){
+        int b = where[v];
+        if(prev[v] >= 0) next[prev[v]] = next[v]; else head[b] = next[v];
+        if(next[v] >= 0) prev[next[v]] = prev[v];
+        where[v] = -1;
+        size--;
+    }
+
+    public void clear(){
+        for(int b = 0; b < span && size > 0; b++) while(head[b] >= 0) unlink(head[b]);
+        last = 0;
+    }
+}
+
+// Radix heap for integral keys: a monotone queue (keys pushed are >= the last key popped) where bucket i
+// holds entries whose key differs from `last` first in bit i-1. Decrease-key pushes a new entry and
+// stale ones are skipped on the way out, so each entry moves down at most 64 buckets.
+class RadixHeap implements NodeQueue {
+    private final int[][] nodes = new int[65][];
+    private final long[][] keys = new long[65][];
+    private final int[] len = new int[65];
+    private final long[] best;     // current key of a queued node
+    private final boolean[] queued;
+    private long last;
+    private int live;
+
+    RadixHeap(int n){
+        best = new long[n];
+        queued = new boolean[n];
+        for(int i = 0; i < 65; i++){ nodes[i] = new int[4]; keys[i] = new long[4]; }
+    }
+
+    boolean fits(int n){ return queued.length >= n; }
+
+    public boolean isEmpty(){ return live==0; }
+
+    private int bucket(long k){ return k==last ? 0 : 64 - Long.numberOfLeadingZeros(k ^ last); }
+
+    private void add(int v, long k){
+        int b = bucket(k);
+        if(len[b]==nodes[b].length){ nodes[b] = Arrays.copyOf(nodes[b], len[b]*2); keys[b] = Arrays.copyOf(keys[b], len[b]*2); }
+        nodes[b][len[b]] = v;
+        keys[b][len[b]++] = k;
+    }
+
+    public void push(int v, double k){
+        long lk = (long)k;
+        if(queued[v]){
+            if(lk >= best[v]) return;
+        } else {
+            queued[v] = true;
+            live++;
+        }
+        best[v] = lk;
+        add(v, lk);
+    }
+
+    public int pop(){
+        while(true){
+            if(len[0]==0){
+                int b = 1;
+                while(len[b]==0) b++;
+                long min = Long.MAX_VALUE;
+                for(int i = 0; i < len[b]; i++){
+                    int v = nodes[b][i];
+                    if(queued[v] && keys[b][i]==best[v] && keys[b][i] < min) min = keys[b][i];
+                }
+                int n = len[b];
+                len[b] = 0;
+                if(min==Long.MAX_VALUE) continue; // bucket held only stale entries
+                last = min;
+                for(int i = 0; i < n; i++){
+                    int v = nodes[b][i];
+                    if(queued[v] && keys[b][i]==best[v]) add(v, keys[b][i]);
+                }
+            }
+            int v = nodes[0][--len[0]];
+            if(queued[v] && keys[0][len[0]]==best[v]){
+                queued[v] = false;
+                live--;
+                return v;
+            }
+        }
+    }
+
+    public void clear(){
+        for(int b = 0; b < 65; b++){
+            for(int i = 0; i < len[b]; i++) queued[nodes[b][i]] = false;
+            len[b] = 0;
+        }
+        live = 0;
+        last = 0;
+    }
+}
+
+// Growable primitive int list.
+class IntList {
+    int[] a;
+    int size;
+    IntList(){ a = new int[8]; }
+    IntList(int cap){ a = new int[Math.max(1, cap)]; }
+    void add(int v){
+        if(size==a.length) a = Arrays.copyOf(a, size*2);
+        a[size++] = v;
+    }
+    int get(int i){ return a[i]; }
+    void clear(){ size = 0; }
+    int[] toArray(){ return Arrays.copyOf(a, size); }
+}
+
+// little-endian column IO shared by the on-disk formats: columns are written in 64 KB chunks and
+// mapped back one read-only mapping per column, so no single column may exceed 2 GB
+final class BinaryIO {
+    private BinaryIO(){}
+
+    static void writeInts(FileChannel ch, IntBuffer src) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+        for(int i = 0, len = src.limit(); i < len; ){
+            buf.clear();
+            for(; i < len && buf.remaining() >= 4; i++) buf.putInt(src.get(i));
+            buf.flip();
+            while(buf.hasRemaining()) ch.write(buf);
+        }
+    }
+
+    static void writeDoubles(FileChannel ch, DoubleBuffer src) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+        for(int i = 0, len = src.limit(); i < len; ){
+            buf.clear();
+            for(; i < len && buf.remaining() >= 8; i++) buf.putDouble(src.get(i));
+            buf.flip();
+            while(buf.hasRemaining()) ch.write(buf);
+        }
+    }
+
+    static IntBuffer mapInts(FileChannel ch, long pos, int count) throws IOException {
+        return ch.map(FileChannel.MapMode.READ_ONLY, pos, 4L*count).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+    }
+
+    static DoubleBuffer mapDoubles(FileChannel ch, long pos, int count) throws IOException {
+        return ch.map(FileChannel.MapMode.READ_ONLY, pos, 8L*count).order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+    }
+}
+
+class Graph {
+    static final double INF = Double.POSITIVE_INFINITY;
+
+    // Editable form of the graph. A graph loaded from CSV starts with only its CSR view; the maps
+    // and Edge objects are built from it on first use (see materialize()).
+    private final Map<Integer, Node> nodes = new HashMap<>();
+    private final Map<Integer, List<Edge>> adj = new HashMap<>();
+    private final Map<Integer, List<Integer>> stageNodes = new HashMap<>();
+    private boolean lazy; // the maps are still empty and csr holds the graph, guarded by the monitor
+
+    // frozen CSR view, rebuilt lazily after any structural change
+    private volatile Csr csr;
+    private long lastVersion; // newest cost version handed out, guarded by the monitor
+    // hot origins whose shortest-path trees are repaired in place on every cost update
+    private final Map<Integer, DynamicTree> trackedTrees = new ConcurrentHashMap<>();
+    private volatile TreeCache treeCache; // full trees of hot batch origins, off until cacheTrees()
+
+    Map<Integer, Node> nodes(){ materialize(); return nodes; }
+    Map<Integer, List<Edge>> adj(){ materialize(); return adj; }
+    Map<Integer, List<Integer>> stageNodes(){ materialize(); return stageNodes; }
+
+    // Fill the maps of a loaded graph from its CSR view, in stage-table and arc order, with the
+    // current costs. The view keeps the new Edge objects in step with later cost updates.
+    private synchronized void materialize(){
+        if(!lazy) return;
+        Csr c = csr;
+        CostVersion w = c.costs;
+        Edge[] edges = new Edge[c.targets.length];
+        for(int u = 0; u < c.n; u++){
+            nodes.put(c.ids[u], new Node(c.ids[u], c.stage[u]));
+            List<Edge> out = new ArrayList<>(c.offsets[u+1] - c.offsets[u]);
+            for(int a = c.offsets[u]; a < c.offsets[u+1]; a++){
+                edges[a] = new Edge(c.ids[u], c.ids[c.targets[a]], w.get(a), c.travelTime[a]);
+                out.add(edges[a]);
+            }
+            adj.put(c.ids[u], out);
+        }
+        for(int k = 0; k < c.stageKeys.length; k++){
+            List<Integer> members = new ArrayList<>(c.stageOff[k+1] - c.stageOff[k]);
+            for(int p = c.stageOff[k]; p < c.stageOff[k+1]; p++) members.add(c.ids[c.stageMembers[p]]);
+            stageNodes.put(c.stageKeys[k], members);
+        }
+        c.arcEdges = edges;
+        lazy = false;
+    }
+
+    // adding a known id again keeps its edges and moves it to the new stage
+    void addNode(int id, int stage){
+        materialize();
+        Node n = new Node(id, stage);
+        Node old = nodes.put(id, n);
+        if(old != null){
+            List<Integer> members = stageNodes.get(old.stage);
+            members.remove(Integer.valueOf(id));
+            if(members.isEmpty()) stageNodes.remove(old.stage);
+        }
+        stageNodes.computeIfAbsent(stage, k->new ArrayList<>()).add(id);
+        adj.computeIfAbsent(id, k->new ArrayList<>());
+        csr = null;
+    }
+
+    void addEdge(int from, int to, double cost, double time){
+        materialize();
+        if(!nodes.containsKey(from) || !nodes.containsKey(to)) throw new RuntimeException("Unknown node");
+        Edge e = new Edge(from,to,cost,time);
+        adj.get(from).add(e);
+        csr = null;
+    }
+
+    // Writers serialize on the graph monitor; readers never lock. Changed arcs go into copy-on-write
+    // blocks of a new CostVersion that is published in one volatile write, so a query keeps seeing
+    // the version it pinned at its start. Without a view the edge list is edited directly, unless
+    // trees are tracked: then the view is rebuilt first so the update reaches them.
+    synchronized void updateEdgeCost(int from, int to, double newCost){
+        Csr c = csr;
+        if(c==null && !trackedTrees.isEmpty()) c = freeze();
+        if(c==null){
+            List<Edge> edges = adj.getOrDefault(from, Collections.emptyList());
+            for(Edge e: edges) if(e.to==to) e.cost = newCost;
+            return;
+        }
+        CostVersion.Writer w = c.costs.writer();
+        c.setCost(w, from, to, newCost);
+        publish(c, w);
+    }
+
+    // Apply a whole feed tick: every (from[i], to[i]) arc gets cost[i], all in one new version, so a
+    // query sees either none or all of the tick. Unknown pairs are skipped; returns arcs changed.
+    synchronized int bulkUpdateEdgeCosts(int[] from, int[] to, double[] cost){
+        if(from.length != to.length || from.length != cost.length) throw new IllegalArgumentException("length mismatch");
+        Csr c = freeze();
+        CostVersion.Writer w = c.costs.writer();
+        int changed = 0;
+        for(int i = 0; i < from.length; i++) changed += c.setCost(w, from[i], to[i], cost[i]);
+        publish(c, w);
+        return changed;
+    }
+
+    // publish the writer's version, then bring tracked trees up to it (caller holds the monitor); the
+    // hierarchy weights are carried over just before it becomes visible
+    private void publish(Csr c, CostVersion.Writer w){
+        CostVersion base = c.costs, next = w.publish();
+        if(next==base) return;
+        ContractionHierarchy ch = c.ch;
+        if(ch != null) ch.advance(c, base, next, w.changedArcs()); // before any reader can pin next
+        c.costs = next;
+        lastVersion = next.version;
+        for(DynamicTree t: trackedTrees.values()) t.update(c, base, next, w.changedArcs());
+        TreeCache tc = treeCache;
+        if(tc != null) tc.retain(next.version);
+    }
+
+    // ---------- Dynamic shortest-path trees ----------
+
+    // Keep a full shortest-path tree from sourceId that cost updates repair incrementally instead of
+    // recomputing. Tracking the same source twice returns the existing tree. Nodes and edges added
+    // later reach it when the view is next rebuilt: by the next query or cost update.
+    synchronized DynamicTree trackTree(int sourceId){
+        Csr c = freeze();
+        DynamicTree t = trackedTrees.computeIfAbsent(sourceId, DynamicTree::new);
+        if(t.csr != c) t.rebuild(c, c.costs); // new, or left behind by a structural change
+        return t;
+    }
+
+    void untrackTree(int sourceId){ trackedTrees.remove(sourceId); }
+
+    // Keep up to maxTrees full shortest-path trees of Dijkstra batch origins, within maxBytes (about
+    // 12 bytes a node per tree). A batch group whose source is cached answers each destination in
+    // O(path length); a source missing for the second time grows its whole tree instead of stopping
+    // at its last destination, and caches it. Replaces any previous cache; the returned one carries
+    // the counters.
+    TreeCache cacheTrees(int maxTrees, long maxBytes){ return treeCache = new TreeCache(maxTrees, maxBytes); }
+
+    void uncacheTrees(){ treeCache = null; }
+
+    TreeCache treeCache(){ return treeCache; }
+
+    // version of the currently published cost column; pair with changedTrees to see what an update touched
+    long costVersion(){ return freeze().costs.version; }
+
+    // sources of tracked trees whose distances or parents changed after cost version `since`
+    int[] changedTrees(long since){
+        IntList out = new IntList();
+        for(DynamicTree t: trackedTrees.values()) if(t.changedAt > since) out.add(t.sourceId);
+        return out.toArray();
+    }
+
+    // Build (or return the cached) CSR view. All searches run against it. Tracked trees are regrown
+    // on every new view, so they never lag a structural change by more than one freeze.
+    Csr freeze(){
+        Csr c = csr;
+        if(c != null) return c;
+        synchronized(this){
+            if(csr==null){
+                c = new Csr(this, ++lastVersion); // versions keep rising across rebuilds
+                for(DynamicTree t: trackedTrees.values()) t.rebuild(c, c.costs);
+                csr = c;
+            }
+            return csr;
+        }
+    }
+
+    // DP for multistage graph: assumes every path must move from source.stage .. dest.stage
+    // edges may go to any later stage (>= current stage+1). Complexity ~ sum(edges between stages)
+    Result findMinCostRouteDP(int sourceId, int destId){
+        return findMinCostRouteDP(sourceId, destId, (Deadline)null);
+    }
+
+    // deadline == null runs to completion, on the dense stage blocks when the view qualifies and they
+    // are current; past the deadline the answer is Result.timeout with the cost so far
+    Result findMinCostRouteDP(int sourceId, int destId, Deadline deadline){
+        Csr c = freeze();
+        int s = c.index(sourceId), d = c.index(destId);
+        if(s<0 || d<0) return Result.empty("invalid nodes");
+        if(c.stage[s] > c.stage[d]) return Result.empty("source after dest");
+        if(c.reach != null && !c.reach.mayReach(s, d)) return Result.empty("no path");
+        DenseStageGraph dense = deadline==null ? denseStages(c, c.costs) : null;
+        if(dense != null) return dense.findMinCostRouteDP(sourceId, destId);
+
+        SearchSpace dp = QueryContext.get(c.n).fwd;
+        if(relaxStages(c, c.costs, dp, s, c.stage[d], true, deadline) < c.stage[d]) return Result.timeout(dp.dist(d), 0.0);
+
+        if(dp.dist(d)==INF) return Result.empty("no path");
+        int[] path = c.tracePath(dp, s, d);
+        if(path==null) return Result.empty("reconstruction failed");
+        return new Result(dp.dist(d), path);
+    }
+
+    // parallel == true relaxes each large stage across cores; same cost and path as the sequential DP
+    Result findMinCostRouteDP(int sourceId, int destId, boolean parallel){
+        if(!parallel) return findMinCostRouteDP(sourceId, destId);
+        Csr c = freeze();
+        int s = c.index(sourceId), d = c.index(destId);
+        if(s<0 || d<0) return Result.empty("invalid nodes");
+        if(c.stage[s] > c.stage[d]) return Result.empty("source after dest");
+
+        StageDp dp = new StageDp(c, c.costs);
+        dp.run(s, c.stage[d]);
+
+        double cost = StageDp.value(dp.dist.get(d));
+        if(cost==INF) return Result.empty("no path");
+        IntList rev = new IntList();
+        for(int v = d; v != s; v = c.stageMembers[dp.from.get(v)]) rev.add(c.ids[v]);
+        rev.add(c.ids[s]);
+        int[] path = new int[rev.size];
+        for(int k = 0; k < rev.size; k++) path[k] = rev.get(rev.size-1-k);
+        return new Result(cost, path);
+    }
+
+    // A private copy of the stage blocks for the current costs, for callers that edit them directly.
+    // Throws unless every arc joins a stage to the next one.
+    DenseStageGraph denseStages(){
+        Csr c = freeze();
+        return DenseStageGraph.of(c, c.costs);
+    }
+
+    // Dense blocks mirroring cost version w, or null: sparser stages (under Csr.DENSE_FILL of the
+    // blocks) stay on the CSR walk, where empty cells cost nothing. Blocks missing or behind w are
+    // rebuilt off the query thread, for the newest version, while this query walks the CSR.
+    private static DenseStageGraph denseStages(Csr c, CostVersion w){
+        if(!c.denseStages) return null;
+        DenseStageGraph g = c.dense;
+        if(g != null && g.version==w.version) return g;
+        c.rebuild(Csr.BUILD_DENSE, () -> {
+            CostVersion now = c.costs;
+            DenseStageGraph cur = c.dense;
+            if(cur != null && cur.version >= now.version) return;
+            DenseStageGraph built = DenseStageGraph.of(c, now);
+            cur = c.dense;
+            if(cur==null || cur.version < built.version) c.dense = built;
+        });
+        return null;
+    }
+
+    // Stage-parallel DP. Arcs leaving a stage only write into later stages, so a stage's members relax
+    // independently: an atomic min over order-preserving long keys of the costs settles the distances,
+    // then a second pass over the same arcs elects each improved target's parent as the earliest member
+    // (by stage-table position) reaching that minimum, which is the one the sequential walk keeps.
+    // The stream's completion is the barrier between stages. Stages with arcs among their own members
+    // depend on member order, so they, and stages too small to be worth splitting, run sequentially.
+    private static final class StageDp {
+        static final int PARALLEL_MIN = 2048; // members below which a stage runs on the caller's thread
+        final Csr c; final CostVersion w;
+        final AtomicLongArray dist;    // key(cost): signed long order matches double order, negatives included
+        final AtomicIntegerArray from; // stage-table position of the parent, -1 for none
+        final int[] improvedIn;        // last stage slot that lowered dist(v), or -1
+
+        StageDp(Csr c, CostVersion w){
+            this.c = c; this.w = w;
+            dist = new AtomicLongArray(c.n);
+            from = new AtomicIntegerArray(c.n);
+            improvedIn = new int[c.n];
+            long inf = key(INF);
+            for(int v = 0; v < c.n; v++){ dist.set(v, inf); from.set(v, -1); improvedIn[v] = -1; }
+        }
+
+        // Raw bits order non-negative doubles correctly but negative ones backwards; flipping the
+        // magnitude bits of negatives fixes that. Adding 0.0 folds -0.0 into 0.0 first.
+        static long key(double x){
+            long bits = Double.doubleToRawLongBits(x + 0.0);
+            return bits ^ ((bits >> 63) & Long.MAX_VALUE);
+        }
+
+        static double value(long k){ return Double.longBitsToDouble(k ^ ((k >> 63) & Long.MAX_VALUE)); }
+
+        void run(int s, int end){
+            dist.set(s, key(0.0));
+            for(int i = c.stageSlot(c.stage[s]); i < c.stageKeys.length && c.stageKeys[i] <= end; i++){
+                int lo = c.stageOff[i], hi = c.stageOff[i+1];
+                if(c.stageLocal[i] || hi - lo < PARALLEL_MIN){
+                    for(int m = lo; m < hi; m++) relaxInOrder(m, c.stageKeys[i]);
+                    continue;
+                }
+                final int slot = i;
+                IntStream.range(lo, hi).parallel().forEach(m -> relaxMin(m, slot));
+                IntStream.range(lo, hi).parallel().forEach(m -> electParent(m, slot, lo));
+            }
+        }
+
+        // the sequential step for member m, including same-stage arcs
+        private void relaxInOrder(int m, int st){
+            int u = c.stageMembers[m];
+            double du = value(dist.get(u));
+            if(du==INF) return;
+            for(int a = c.offsets[u]; a < c.offsets[u+1]; a++){
+                int v = c.targets[a];
+                if(c.stage[v] < st) continue;
+                double nc = du + w.get(a);
+                if(nc < value(dist.get(v))){
+                    dist.set(v, key(nc));
+                    from.set(v, m);
+                }
+            }
+        }
+
+        private void relaxMin(int m, int slot){
+            int st = c.stageKeys[slot], u = c.stageMembers[m];
+            double du = value(dist.get(u));
+            if(du==INF) return;
+            for(int a = c.offsets[u]; a < c.offsets[u+1]; a++){
+                int v = c.targets[a];
+                if(c.stage[v] < st) continue;
+                long nb = key(du + w.get(a));
+                for(long cur = dist.get(v); nb < cur; cur = dist.get(v)){
+                    if(dist.compareAndSet(v, cur, nb)){ improvedIn[v] = slot; break; } // every writer stores slot
+                }
+            }
+        }
+
+        // lo is the stage's first table position: parents below it came from earlier stages and lose
+        private void electParent(int m, int slot, int lo){
+            int u = c.stageMembers[m];
+            double du = value(dist.get(u));
+            if(du==INF) return;
+            for(int a = c.offsets[u]; a < c.offsets[u+1]; a++){
+                int v = c.targets[a];
+                if(c.stage[v] < c.stageKeys[slot] || improvedIn[v] != slot || du + w.get(a) != value(dist.get(v))) continue;
+                for(int cur = from.get(v); cur < lo || cur > m; cur = from.get(v)){
+                    if(from.compareAndSet(v, cur, m)) break;
+                }
+            }
+        }
+    }
+
+    // walk the stage table from s.stage to end, relaxing forward (stage-monotone) arcs only.
+    // Stages past a node's own stage never write into it, so one pass up to the largest end
+    // answers every destination at or below end exactly as a per-destination run would.
+    // track == false leaves parents unset, for groups that only want costs. Returns the last stage
+    // walked to completion: end, or less if the deadline passed first. A node's cost is final once its
+    // own stage is complete.
+    private static int relaxStages(Csr c, CostVersion w, SearchSpace dp, int s, int end, boolean track, Deadline deadline){
+        dp.set(s, 0.0, -1);
+        int done = Integer.MIN_VALUE, visited = 0;
+        for(int i = c.stageSlot(c.stage[s]); i < c.stageKeys.length && c.stageKeys[i] <= end; done = c.stageKeys[i++]){
+            int st = c.stageKeys[i];
+            for(int m = c.stageOff[i]; m < c.stageOff[i+1]; m++){
+                if(deadline != null && visited++ % Deadline.CHECK_EVERY==0 && deadline.expired()) return done;
+                int u = c.stageMembers[m];
+                double costU = dp.dist(u);
+                if(costU==INF) continue;
+                for(int a = c.offsets[u]; a < c.offsets[u+1]; a++){
+                    int v = c.targets[a];
+                    if(c.stage[v] < st) continue; // do not go backwards
+                    // we allow same-stage forward edges if present
+                    double nc = costU + w.get(a);
+                    if(nc < dp.dist(v)){ if(track) dp.set(v, nc, u); else dp.setDist(v, nc); }
+                }
+            }
+        }
+        return end;
+    }
+
+    // Dijkstra for arbitrary graph (no stage constraint). Use when stages are not strict or graph is dense.
+    // The queue engine follows the pinned cost version: integral costs run on a bucket queue.
+    Result findShortestPathDijkstra(int sourceId, int destId){
+        return dijkstra(sourceId, destId, null, true, null);
+    }
+
+    // engine == null picks one from the weight range; an integer engine on non-integral costs falls back to HEAP
+    Result findShortestPathDijkstra(int sourceId, int destId, Engine engine){
+        return dijkstra(sourceId, destId, engine, true, null);
+    }
+
+    // Stops once the deadline passes (polled every Deadline.CHECK_EVERY settled nodes) and returns
+    // Result.timeout: cost is the best distance reached so far, bound the last settled key, which no
+    // unsettled node can beat.
+    Result findShortestPathDijkstra(int sourceId, int destId, Deadline deadline){
+        return dijkstra(sourceId, destId, null, true, deadline);
+    }
+
+    // shortest-path cost alone (INF if there is none): the search skips parent tracking entirely
+    double shortestPathCost(int sourceId, int destId){
+        return dijkstra(sourceId, destId, null, false, null).cost;
+    }
+
+    private Result dijkstra(int sourceId, int destId, Engine engine, boolean track, Deadline deadline){
+        Csr c = freeze();
+        int s = c.index(sourceId), d = c.index(destId);
+        if(s<0 || d<0) return Result.empty("invalid nodes");
+        if(c.reach != null && !c.reach.mayReach(s, d)) return Result.empty("no path");
+        CostVersion w = c.costs;
+        QueryContext ctx = QueryContext.get(c.n);
+        SearchSpace sp = ctx.fwd;
+        NodeQueue pq = ctx.queue(c.n, w, engine);
+        sp.set(s, 0.0, -1);
+        pq.push(s, 0.0);
+        int settled = 0;
+        while(!pq.isEmpty()){
+            int u = pq.pop(); // settled: dist(u) is final
+            if(u==d) break;
+            double dU = sp.dist(u);
+            if(deadline != null && settled++ % Deadline.CHECK_EVERY==0 && deadline.expired()){
+                pq.clear();
+                return Result.timeout(sp.dist(d), dU);
+            }
+            for(int a = c.offsets[u]; a < c.offsets[u+1]; a++){
+                int v = c.targets[a];
+                double nd = dU + w.get(a);
+                if(nd < sp.dist(v)){
+                    if(track) sp.set(v, nd, u); else sp.setDist(v, nd);
+                    pq.push(v, nd);
+                }
+            }
+        }
+        pq.clear();
+        if(sp.dist(d)==INF) return Result.empty("no path");
+        if(!track) return Result.costOnly(sp.dist(d));
+        return new Result(sp.dist(d), c.tracePath(sp, s, d));
+    }
+
+    // Bidirectional Dijkstra: forward search from the source over offsets/targets, backward search
+    // from the destination over the reverse index. mu is the best s-t cost seen through any arc
+    // joining the two searches; once topF + topB >= mu no shorter path can still be found.
+    // The cost always equals findShortestPathDijkstra's. When several shortest paths tie, the path
+    // may be a different one of them: the meeting arc, not the forward pop order, picks it.
+    Result findShortestPathBidirectional(int sourceId, int destId){
+        Csr c = freeze();
+        int s = c.index(sourceId), d = c.index(destId);
+        if(s<0 || d<0) return Result.empty("invalid nodes");
+        if(s==d) return new Result(0.0, new int[]{sourceId});
+        CostVersion w = c.costs;
+        QueryContext ctx = QueryContext.get(c.n);
+        SearchSpace f = ctx.fwd, b = ctx.bwd; // b.parent(v) = next node towards d
+        DHeap qF = f.heap, qB = b.heap;
+        f.set(s, 0.0, -1); b.set(d, 0.0, -1);
+        qF.push(s, 0.0); qB.push(d, 0.0);
+        double mu = INF;
+        int meet = -1;
+        while(!qF.isEmpty() && !qB.isEmpty()){
+            if(qF.minKey() + qB.minKey() >= mu) break;
+            if(qF.minKey() <= qB.minKey()){
+                int u = qF.pop();
+                double dU = f.dist(u);
+                for(int a = c.offsets[u]; a < c.offsets[u+1]; a++){
+                    int v = c.targets[a];
+                    double nd = dU + w.get(a);
+                    if(nd < f.dist(v)){
+                        f.set(v, nd, u);
+                        qF.push(v, nd);
+                    }
+                    if(f.dist(v) + b.dist(v) < mu){ mu = f.dist(v) + b.dist(v); meet = v; }
+                }
+            } else {
+                int u = qB.pop();
+                double dU = b.dist(u);
+                for(int r = c.rOffsets[u]; r < c.rOffsets[u+1]; r++){
+                    int v = c.rSources[r];
+                    double nd = dU + w.get(c.rArcs[r]);
+                    if(nd < b.dist(v)){
+                        b.set(v, nd, u);
+                        qB.push(v, nd);
+                    }
+                    if(f.dist(v) + b.dist(v) < mu){ mu = f.dist(v) + b.dist(v); meet = v; }
+                }
+            }
+        }
+        if(mu==INF) return Result.empty("no path");
+        int[] head = c.tracePath(f, s, meet);
+        int len = head.length;
+        for(int cur = meet; cur != d; cur = b.parent(cur)) len++;
+        int[] path = Arrays.copyOf(head, len);
+        for(int cur = meet, k = head.length; cur != d; ) path[k++] = c.ids[cur = b.parent(cur)];
+        return new Result(mu, path);
+    }
+
+    // ---------- ALT: A*, landmarks, triangle inequality ----------
+    static final int DEFAULT_LANDMARKS = 8;
+
+    // Pick k landmarks and store forward/backward distance arrays on the current CSR view.
+    // Bounds stay admissible under any later cost change: they are lowered by the total decrease since
+    // the tables were computed, and tables worn down that way are rebuilt in the background.
+    Landmarks preprocessLandmarks(int k, LandmarkSelection sel){
+        Csr c = freeze();
+        Landmarks lm = new Landmarks(c, c.costs, k, sel);
+        c.landmarks = lm;
+        return lm;
+    }
+
+    // landmarks usable under cost version w, or null (the query runs without a heuristic). The first
+    // use on a view builds the tables in place unless under a deadline; tables that decreases have
+    // worn down, or that no longer apply to w, are rebuilt in the background for the newest version.
+    private static Landmarks landmarks(Csr c, CostVersion w, Deadline deadline){
+        Landmarks lm = c.landmarks;
+        if(lm==null){
+            if(deadline != null) return null;
+            lm = new Landmarks(c, w, DEFAULT_LANDMARKS, LandmarkSelection.AVOID);
+            Landmarks cur = c.landmarks;
+            if(cur==null || cur.version < lm.version) c.landmarks = lm;
+            return lm;
+        }
+        boolean valid = lm.validFor(w);
+        if(!valid || lm.worn(w)){
+            int k = lm.k;
+            c.rebuild(Csr.BUILD_LANDMARKS, () -> {
+                CostVersion now = c.costs;
+                Landmarks cur = c.landmarks;
+                if(cur != null && cur.version >= now.version && cur.validFor(now) && !cur.worn(now)) return;
+                Landmarks built = new Landmarks(c, now, k, LandmarkSelection.AVOID);
+                cur = c.landmarks;
+                if(cur==null || cur.version < built.version) c.landmarks = built;
+            });
+        }
+        return valid ? lm : null;
+    }
+
+    // A* with the landmark lower bound as heuristic (zero while no tables apply to the pinned cost
+    // version). After decreases the lowered bound is admissible but may be inconsistent, so a node is
+    // reopened whenever its distance improves; the search ends when destId leaves the queue.
+    Result findShortestPathALT(int sourceId, int destId){
+        return findShortestPathALT(sourceId, destId, null);
+    }
+
+    // deadline == null runs to completion; past it the answer is Result.timeout, bounded below by the
+    // smallest open key (g + h never overestimates under a consistent h)
+    Result findShortestPathALT(int sourceId, int destId, Deadline deadline){
+        Csr c = freeze();
+        int s = c.index(sourceId), d = c.index(destId);
+        if(s<0 || d<0) return Result.empty("invalid nodes");
+        CostVersion w = c.costs;
+        Landmarks lm = landmarks(c, w, deadline);
+        double hs = lm==null ? 0.0 : lm.lowerBound(s, d, w);
+        if(hs==INF) return Result.empty("no path");
+        SearchSpace sp = QueryContext.get(c.n).fwd;
+        DHeap pq = sp.heap;
+        sp.set(s, 0.0, -1);
+        pq.push(s, hs);
+        for(int settled = 0; !pq.isEmpty(); ){
+            if(deadline != null && settled++ % Deadline.CHECK_EVERY==0 && deadline.expired()) return Result.timeout(sp.dist(d), pq.minKey());
+            int u = pq.pop();
+            if(u==d) break;
+            double dU = sp.dist(u);
+            for(int a = c.offsets[u]; a < c.offsets[u+1]; a++){
+                int v = c.targets[a];
+                double nd = dU + w.get(a);
+                if(nd < sp.dist(v)){
+                    double h = lm==null ? 0.0 : lm.lowerBound(v, d, w);
+                    if(h==INF) continue; // v cannot reach d
+                    sp.set(v, nd, u);
+                    pq.push(v, nd + h);
+                }
+            }
+        }
+        if(sp.dist(d)==INF) return Result.empty("no path");
+        return new Result(sp.dist(d), c.tracePath(sp, s, d));
+    }
+
+    // ---------- Reachability ----------
+
+    // false only when no path from fromId to toId exists in the current topology. Arcs are counted
+    // whatever their cost, so a closed arc can still give a false "true", never a false "false".
+    // The index belongs to the CSR view: adding nodes or edges drops it and the next call rebuilds it.
+    boolean mayReach(int fromId, int toId){
+        Csr c = freeze();
+        int s = c.index(fromId), d = c.index(toId);
+        return s >= 0 && d >= 0 && reachability(c).mayReach(s, d);
+    }
+
+    private static Reachability reachability(Csr c){
+        Reachability r = c.reach;
+        if(r==null){
+            r = new Reachability(c);
+            if(c.reach==null) c.reach = r; else r = c.reach;
+        }
+        return r;
+    }
+
+    // ---------- Hub labels ----------
+
+    // label the current costs; the labels are also kept on the view for findShortestPathHL
+    HubLabels buildHubLabels(){
+        Csr c = freeze();
+        HubLabels hl = HubLabels.build(c, c.costs);
+        c.hubs = hl;
+        return hl;
+    }
+
+    // Adopt labels loaded from disk. They must have been built on exactly this graph and its current
+    // costs: the fingerprint stored with them is checked against the published cost version.
+    void attachHubLabels(HubLabels hl){
+        Csr c = freeze();
+        if(!hl.sameNodes(c.ids)) throw new IllegalArgumentException("labels were built for other nodes");
+        CostVersion w = c.costs;
+        if(hl.fingerprint != HubLabels.fingerprint(c, w)) throw new IllegalArgumentException("labels were built on other arcs or costs");
+        c.hubs = hl.forVersion(w.version);
+    }
+
+    // Cost from one label merge. The path is recovered only when read, by a depth-first descent over
+    // tight arcs: u -> v with cost(u, v) + dist(v, d) == dist(u, d), never revisiting a node, so
+    // zero-cost cycles cannot trap it. If rounding leaves no tight route, the path comes from a
+    // Dijkstra tree on the same pinned costs. Runs Dijkstra instead while the labels lag behind the
+    // pinned cost version.
+    Result findShortestPathHL(int sourceId, int destId){
+        Csr c = freeze();
+        int s = c.index(sourceId), d = c.index(destId);
+        if(s<0 || d<0) return Result.empty("invalid nodes");
+        CostVersion w = c.costs;
+        HubLabels hl = c.hubs;
+        if(hl==null || hl.version != w.version) return findShortestPathDijkstra(sourceId, destId);
+        double cost = hl.dist(s, d);
+        if(cost==INF) return Result.empty("no path");
+        return new Result(cost, () -> {
+            int[] path = tightPath(c, w, hl, s, d);
+            return path != null ? path : treePath(c, w, s, d);
+        });
+    }
+
+    // node ids s..d along tight arcs of the labels, or null if the descent finds none
+    private static int[] tightPath(Csr c, CostVersion w, HubLabels hl, int s, int d){
+        IntList path = new IntList(), next = new IntList(); // next.get(k): arc to try from path.get(k)
+        BitSet seen = new BitSet(c.n);
+        path.add(s); next.add(c.offsets[s]); seen.set(s);
+        while(path.size > 0){
+            int k = path.size-1, u = path.get(k);
+            if(u==d){
+                int[] ids = new int[path.size];
+                for(int i = 0; i < ids.length; i++) ids[i] = c.ids[path.get(i)];
+                return ids;
+            }
+            double du = hl.dist(u, d);
+            int a = next.get(k);
+            while(a < c.offsets[u+1] && (seen.get(c.targets[a]) || w.get(a) + hl.dist(c.targets[a], d) != du)) a++;
+            if(a==c.offsets[u+1]){ path.size--; next.size--; continue; } // dead end: back up
+            next.a[k] = a+1;
+            int v = c.targets[a];
+            seen.set(v);
+            path.add(v); next.add(c.offsets[v]);
+        }
+        return null;
+    }
+
+    // node ids s..d from a full Dijkstra tree under w, or null if d is unreachable
+    private static int[] treePath(Csr c, CostVersion w, int s, int d){
+        double[] dist = new double[c.n];
+        int[] parent = new int[c.n];
+        shortestPathTree(c, w, new int[]{s}, 1, false, dist, parent, null);
+        if(dist[d]==INF) return null;
+        IntList rev = new IntList();
+        for(int v = d; v >= 0; v = parent[v]) rev.add(c.ids[v]);
+        int[] ids = new int[rev.size];
+        for(int i = 0; i < ids.length; i++) ids[i] = rev.get(rev.size-1-i);
+        return ids;
+    }
+
+    // Weighted A*: keys are g + (1+epsilon)*h over the landmark bound h (zero while no tables apply).
+    // With a consistent h and every node expanded at most once, the answer costs at most (1+epsilon)
+    // times the optimum; while decreases have lowered h (admissible, maybe inconsistent) nodes are
+    // reopened instead, which keeps the same guarantee. Result.bound is the proven lower bound max(cost/(1+epsilon), h(source)).
+    Result findShortestPathBounded(int sourceId, int destId, double epsilon){
+        return findShortestPathBounded(sourceId, destId, epsilon, null);
+    }
+
+    // deadline == null runs to completion; past it the answer is Result.timeout bounded below by h(source)
+    Result findShortestPathBounded(int sourceId, int destId, double epsilon, Deadline deadline){
+        if(!(epsilon >= 0)) throw new IllegalArgumentException("epsilon must be >= 0");
+        Csr c = freeze();
+        int s = c.index(sourceId), d = c.index(destId);
+        if(s<0 || d<0) return Result.empty("invalid nodes");
+        CostVersion w = c.costs;
+        Landmarks lm = landmarks(c, w, deadline);
+        double hs = lm==null ? 0.0 : lm.lowerBound(s, d, w), weight = 1.0 + epsilon;
+        boolean reopen = lm != null && lm.slack(w) > 0;
+        if(hs==INF) return Result.empty("no path");
+        QueryContext ctx = QueryContext.get(c.n);
+        SearchSpace sp = ctx.fwd, closed = ctx.bwd; // bwd only marks expanded nodes
+        DHeap pq = sp.heap;
+        sp.set(s, 0.0, -1);
+        pq.push(s, weight * hs);
+        for(int settled = 0; !pq.isEmpty(); ){
+            if(deadline != null && settled++ % Deadline.CHECK_EVERY==0 && deadline.expired()){
+                pq.clear();
+                return Result.timeout(sp.dist(d), hs);
+            }
+            int u = pq.pop();
+            if(u==d) break;
+            closed.set(u, 0.0, -1);
+            double dU = sp.dist(u);
+            for(int a = c.offsets[u]; a < c.offsets[u+1]; a++){
+                int v = c.targets[a];
+                if(!reopen && closed.dist(v)==0.0) continue; // no re-expansion
+                double nd = dU + w.get(a);
+                if(nd < sp.dist(v)){
+                    double h = lm==null ? 0.0 : lm.lowerBound(v, d, w);
+                    if(h==INF) continue; // v cannot reach d
+                    sp.set(v, nd, u);
+                    pq.push(v, nd + weight * h);
+                }
+            }
+        }
+        pq.clear();
+        if(sp.dist(d)==INF) return Result.empty("no path");
+        double cost = sp.dist(d);
+        return Result.bounded(cost, c.tracePath(sp, s, d), Math.min(cost, Math.max(cost / weight, hs)));
+    }
+
+    // ---------- Contraction hierarchy ----------
+
+    // Order nodes by edge difference and insert every fill-in shortcut (no witness search), so the
+    // hierarchy's topology is metric-independent and cost changes only need a re-customization.
+    ContractionHierarchy buildContractionHierarchy(){
+        Csr c = freeze();
+        ContractionHierarchy ch = new ContractionHierarchy(c);
+        c.ch = ch;
+        ch.customize(c, this);
+        return ch;
+    }
+
+    // Hierarchy weights customized for cost version w, or null: the caller then runs Dijkstra. Cost
+    // updates re-customize the published weights incrementally as they are published, so this is
+    // null only before the first customization on the view, which then starts in the background
+    // (topology first if needed, one build at a time), or when w was pinned before the latest update.
+    private ContractionHierarchy.Metric hierarchy(Csr c, CostVersion w){
+        ContractionHierarchy ch = c.ch;
+        ContractionHierarchy.Metric m = ch==null ? null : ch.customized(w);
+        if(m != null || (ch != null && ch.ahead(w))) return m;
+        c.rebuild(Csr.BUILD_HIERARCHY, () -> {
+            ContractionHierarchy h = c.ch;
+            if(h==null){
+                h = new ContractionHierarchy(c);
+                c.ch = h;
+            }
+            if(h.customized(c.costs)==null) h.customize(c, this);
+        });
+        return null;
+    }
+
+    // Bidirectional upward search: forward over upW from the source, backward over downW from the
+    // destination. Each side stops once its queue minimum reaches the best meeting cost.
+    Result findShortestPathCH(int sourceId, int destId){
+        return findShortestPathCH(sourceId, destId, null);
+    }
+
+    // Unless the view has a hierarchy customized for the pinned costs the query runs as a Dijkstra
+    // (see hierarchy()); with a deadline no build is started. Past the deadline the answer is
+    // Result.timeout with the best meeting cost so far.
+    Result findShortestPathCH(int sourceId, int destId, Deadline deadline){
+        Csr c = freeze();
+        int s = c.index(sourceId), d = c.index(destId);
+        if(s<0 || d<0) return Result.empty("invalid nodes");
+        CostVersion w = c.costs;
+        ContractionHierarchy.Metric m = deadline==null ? hierarchy(c, w) : c.ch==null ? null : c.ch.customized(w);
+        if(m==null) return dijkstra(sourceId, destId, null, true, deadline);
+        ContractionHierarchy ch = m.h();
+        QueryContext ctx = QueryContext.get(c.n);
+        SearchSpace f = ctx.fwd, b = ctx.bwd;
+        DHeap qF = f.heap, qB = b.heap;
+        f.set(s, 0.0, -1); b.set(d, 0.0, -1);
+        qF.push(s, 0.0); qB.push(d, 0.0);
+        double mu = INF;
+        int meet = -1;
+        boolean forward = true;
+        for(int settled = 0; ; ){
+            boolean fOpen = !qF.isEmpty() && qF.minKey() < mu, bOpen = !qB.isEmpty() && qB.minKey() < mu;
+            if(!fOpen && !bOpen) break;
+            if(deadline != null && settled++ % Deadline.CHECK_EVERY==0 && deadline.expired()) return Result.timeout(mu, 0.0);
+            forward = fOpen && (!bOpen || !forward);
+            SearchSpace sp = forward ? f : b, other = forward ? b : f;
+            int u = sp.heap.pop();
+            double dU = sp.dist(u);
+            if(dU + other.dist(u) < mu){ mu = dU + other.dist(u); meet = u; }
+            for(int e = ch.upOff[u]; e < ch.upOff[u+1]; e++){
+                int v = ch.upHead[e];
+                double nd = dU + (forward ? m.up(e) : m.down(e));
+                if(nd < sp.dist(v)){
+                    sp.set(v, nd, u);
+                    sp.heap.push(v, nd);
+                }
+            }
+        }
+        if(mu==INF) return Result.empty("no path");
+        // copy the two search-tree chains out of the per-thread spaces; shortcuts are unpacked on first read
+        IntList up = new IntList(), down = new IntList();
+        for(int cur = meet; cur != s; cur = f.parent(cur)) up.add(cur);
+        for(int cur = meet; cur != d; cur = b.parent(cur)) down.add(b.parent(cur));
+        int mid = meet;
+        return new Result(mu, () -> {
+            IntList path = new IntList();
+            path.add(s);
+            for(int i = up.size-1, prev = s; i >= 0; prev = up.get(i--)) m.unpack(prev, up.get(i), path);
+            for(int i = 0, prev = mid; i < down.size; prev = down.get(i++)) m.unpack(prev, down.get(i), path);
+            int[] ids = path.toArray();
+            for(int i = 0; i < ids.length; i++) ids[i] = c.ids[ids[i]];
+            return ids;
+        });
+    }
+
+    // ---------- k shortest loopless paths ----------
+
+    // Up to k loopless routes by increasing cost (Yen). enforceStages keeps to the arcs the stage DP
+    // may use (never into an earlier stage), and finds the true cheapest such routes even where the
+    // DP's in-order treatment of same-stage arcs misses one. One backward search from the destination
+    // gives every node its exact distance-to-go in the unmodified graph: a consistent A* heuristic for
+    // all spur searches, and a ready-made tail, so a spur search usually stops a few nodes in (see
+    // SpurSearch). Accepted paths keep their prefix costs, so a spur's root cost is a lookup.
+    List<Result> findKShortestPaths(int sourceId, int destId, int k, boolean enforceStages){
+        Csr c = freeze();
+        int s = c.index(sourceId), d = c.index(destId);
+        List<Result> out = new ArrayList<>();
+        if(s<0 || d<0 || k <= 0) return out;
+        if(enforceStages && c.stage[s] > c.stage[d]) return out;
+        CostVersion w = c.costs;
+        QueryContext ctx = QueryContext.get(c.n);
+        SearchSpace toGo = ctx.bwd; // dist = exact cost to d over allowed arcs
+        reverseTree(c, w, d, enforceStages, toGo);
+        if(toGo.dist(s)==INF) return out;
+
+        List<int[]> paths = new ArrayList<>();   // accepted, node indices
+        List<double[]> prefix = new ArrayList<>(); // prefix[j][i] = cost of paths[j][0..i]
+        PriorityQueue<KPath> candidates = new PriorityQueue<>(Comparator.comparingDouble((KPath p) -> p.cost));
+        Set<KPath> seen = new HashSet<>();
+        SpurSearch spur = new SpurSearch(c, w, d, enforceStages, toGo, ctx.fwd);
+        KPath first = KPath.of(c, w, spur.run(s), enforceStages);
+        candidates.add(first);
+        seen.add(first);
+        while(paths.size() < k && !candidates.isEmpty()){
+            KPath best = candidates.poll();
+            paths.add(best.nodes);
+            prefix.add(best.prefix);
+            out.add(new Result(best.cost, best.ids(c)));
+            if(paths.size()==k) break;
+            int[] p = best.nodes;
+            for(int i = 0; i+1 < p.length; i++){
+                spur.next();
+                for(int j = 0; j < i; j++) spur.blockNode(p[j]);
+                for(int[] q: paths) if(q.length > i+1 && sharesRoot(p, q, i)) spur.blockArc(q[i+1]);
+                int[] tail = spur.run(p[i]);
+                if(tail==null) continue;
+                int[] nodes = Arrays.copyOf(p, i + tail.length);
+                System.arraycopy(tail, 0, nodes, i, tail.length);
+                KPath cand = KPath.extend(c, w, nodes, best.prefix, i, enforceStages);
+                if(seen.add(cand)) candidates.add(cand);
+            }
+        }
+        return out;
+    }
+
+    private static boolean sharesRoot(int[] p, int[] q, int i){
+        for(int j = 0; j <= i; j++) if(p[j] != q[j]) return false;
+        return true;
+    }
+
+    // backward Dijkstra from d into sp over the arcs the mode allows
+    private static void reverseTree(Csr c, CostVersion w, int d, boolean enforceStages, SearchSpace sp){
+        DHeap pq = sp.heap;
+        sp.set(d, 0.0, -1);
+        pq.push(d, 0.0);
+        while(!pq.isEmpty()){
+            int v = pq.pop();
+            double dV = sp.dist(v);
+            for(int r = c.rOffsets[v]; r < c.rOffsets[v+1]; r++){
+                int u = c.rSources[r];
+                if(enforceStages && c.stage[v] < c.stage[u]) continue;
+                double nd = dV + w.get(c.rArcs[r]);
+                if(nd < sp.dist(u)){ sp.set(u, nd, v); pq.push(u, nd); }
+            }
+        }
+    }
+
+    // A* from a spur node u to d guided by the reverse tree, avoiding blocked nodes and the blocked
+    // arcs out of u. When a node x is popped whose tree path to d is still usable, u..x plus that tail
+    // is optimal (f(x) is the least key and the tail realizes h(x)). The tail is unusable if it meets
+    // a blocked node, a blocked arc, or a node already popped (it would close a loop through the spur
+    // path, or that node's own tail already failed); such failures only grow while the search runs,
+    // so every node on a failed walk is marked bad once, and the tail checks cost O(n) per spur at most.
+    static final class SpurSearch {
+        final Csr c; final CostVersion w; final int d; final boolean enforceStages;
+        final SearchSpace toGo, sp;
+        private final int[] blocked, popped, bad; // stamped with the current spur
+        private final IntList blockedNext = new IntList();
+        private int stamp = 1;
+
+        SpurSearch(Csr c, CostVersion w, int d, boolean enforceStages, SearchSpace toGo, SearchSpace sp){
+            this.c = c; this.w = w; this.d = d; this.enforceStages = enforceStages; this.toGo = toGo; this.sp = sp;
+            blocked = new int[c.n]; popped = new int[c.n]; bad = new int[c.n];
+        }
+
+        void next(){ stamp++; blockedNext.clear(); }
+        void blockNode(int v){ blocked[v] = stamp; }
+        void blockArc(int v){ blockedNext.add(v); }
+
+        // node path u..d, or null when the blocks cut u off
+        int[] run(int u){
+            sp.reset(c.n);
+            DHeap pq = sp.heap;
+            sp.set(u, 0.0, -1);
+            pq.push(u, toGo.dist(u));
+            int end = -1;
+            while(!pq.isEmpty()){
+                int x = pq.pop();
+                popped[x] = stamp;
+                if(x==d || usableTail(x, u)){ end = x; break; }
+                double dX = sp.dist(x);
+                for(int a = c.offsets[x]; a < c.offsets[x+1]; a++){
+                    int v = c.targets[a];
+                    if(enforceStages && c.stage[v] < c.stage[x]) continue;
+                    if(blocked[v]==stamp || popped[v]==stamp || (x==u && isBlockedNext(v))) continue;
+                    double h = toGo.dist(v);
+                    if(h==INF) continue;
+                    double nd = dX + w.get(a);
+                    if(nd < sp.dist(v)){ sp.set(v, nd, x); pq.push(v, nd + h); }
+                }
+            }
+            pq.clear();
+            if(end < 0) return null;
+            IntList path = new IntList();
+            for(int x = end; x != -1; x = sp.parent(x)) path.add(x);
+            for(int i = 0, j = path.size-1; i < j; i++, j--){ int t = path.a[i]; path.a[i] = path.a[j]; path.a[j] = t; }
+            for(int x = toGo.parent(end); x != -1; x = toGo.parent(x)) path.add(x);
+            return path.toArray();
+        }
+
+        private boolean usableTail(int x, int u){
+            if(x==u && isBlockedNext(toGo.parent(x))) return false;
+            int y = toGo.parent(x);
+            while(y != -1 && bad[y] != stamp && blocked[y] != stamp && popped[y] != stamp) y = toGo.parent(y);
+            if(y==-1) return true;
+            for(int z = x; z != y; z = toGo.parent(z)) bad[z] = stamp;
+            return false;
+        }
+
+        private boolean isBlockedNext(int v){
+            for(int i = 0; i < blockedNext.size; i++) if(blockedNext.get(i)==v) return true;
+            return false;
+        }
+    }
+
+    // a candidate route: node indices plus running costs, equal when the node sequences are
+    static final class KPath {
+        final int[] nodes;
+        final double[] prefix;
+        final double cost;
+
+        private KPath(int[] nodes, double[] prefix){
+            this.nodes = nodes; this.prefix = prefix; cost = prefix[prefix.length-1];
+        }
+
+        static KPath of(Csr c, CostVersion w, int[] nodes, boolean enforceStages){
+            return extend(c, w, nodes, new double[]{0.0}, 0, enforceStages);
+        }
+
+        // prefix costs reuse root[0..i] and add the cheapest allowed arc per later hop
+        static KPath extend(Csr c, CostVersion w, int[] nodes, double[] root, int i, boolean enforceStages){
+            double[] prefix = Arrays.copyOf(root, nodes.length);
+            for(int j = i; j+1 < nodes.length; j++){
+                double best = INF;
+                int u = nodes[j], v = nodes[j+1];
+                for(int a = c.offsets[u]; a < c.offsets[u+1]; a++)
+                    if(c.targets[a]==v && (!enforceStages || c.stage[v] >= c.stage[u])) best = Math.min(best, w.get(a));
+                prefix[j+1] = prefix[j] + best;
+            }
+            return new KPath(nodes, prefix);
+        }
+
+        int[] ids(Csr c){
+            int[] ids = new int[nodes.length];
+            for(int i = 0; i < ids.length; i++) ids[i] = c.ids[nodes[i]];
+            return ids;
+        }
+
+        public boolean equals(Object o){ return o instanceof KPath && Arrays.equals(nodes, ((KPath)o).nodes); }
+        public int hashCode(){ return Arrays.hashCode(nodes); }
+    }
+
+    // ---------- Multi-criteria: (cost, travelTime) ----------
+
+    List<ParetoRoute> findParetoRoutes(int sourceId, int destId){ return findParetoRoutes(sourceId, destId, Integer.MAX_VALUE, 0.0); }
+
+    // Bi-criteria label-setting search. Labels leave the queue in lexicographic (cost, time) order, so
+    // every label reaching destId is Pareto-optimal; the search stops after maxRoutes of them. With
+    // epsilon > 0 a label is dropped as soon as a route already found at destId is within a
+    // (1 + epsilon) factor of it on both criteria: the frontier stays small and every true Pareto
+    // route is still matched within that factor. Bags at other nodes use exact dominance.
+    List<ParetoRoute> findParetoRoutes(int sourceId, int destId, int maxRoutes, double epsilon){
+        Csr c = freeze();
+        int s = c.index(sourceId), d = c.index(destId);
+        if(s<0 || d<0) return Collections.emptyList();
+        CostVersion w = c.costs;
+        double slack = 1.0 + epsilon;
+        Labels L = new Labels();
+        SearchSpace bags = QueryContext.get(c.n).fwd; // parent slot holds the head of v's bag of live labels
+        int root = L.add(s, 0.0, 0.0, -1);
+        bags.set(s, 0.0, root);
+        L.push(root);
+        IntList found = new IntList();
+        while(L.size > 0 && found.size < maxRoutes){
+            int l = L.pop();
+            if(L.dead[l]) continue;
+            int u = L.node[l];
+            if(u==d){ found.add(l); continue; }
+            double lc = L.cost[l], lt = L.time[l];
+            for(int a = c.offsets[u]; a < c.offsets[u+1]; a++){
+                int v = c.targets[a];
+                double nc = lc + w.get(a), nt = lt + c.travelTime[a];
+                if(L.dominated(bags.parent(d), nc, nt, slack) || L.dominated(bags.parent(v), nc, nt, 1.0)) continue;
+                int head = L.dropDominated(bags.parent(v), nc, nt);
+                int nl = L.add(v, nc, nt, l);
+                L.next[nl] = head;
+                bags.set(v, 0.0, nl);
+                L.push(nl);
+            }
+        }
+        List<ParetoRoute> out = new ArrayList<>(found.size);
+        for(int i = 0; i < found.size; i++){
+            int l = found.get(i), len = 0;
+            for(int x = l; x >= 0; x = L.pred[x]) len++;
+            int[] path = new int[len];
+            for(int x = l, k = len-1; x >= 0; x = L.pred[x]) path[k--] = c.ids[L.node[x]];
+            out.add(new ParetoRoute(L.cost[l], L.time[l], path));
+        }
+        return out;
+    }
+
+    // ---------- CSV ingest ----------
+
+    // graph from a CSV edge list with rows from,to,cost,travelTime,fromStage,toStage; a first line
+    // that does not start with a number is a header. Use Ingest directly to size the pool or read stats.
+    static Graph loadEdgeCsv(Path file) throws IOException {
+        return new Ingest(file, Runtime.getRuntime().availableProcessors()).run();
+    }
+
+    // Streaming CSV ingest. The file is cut into one byte range per worker; a worker owns the rows that
+    // start inside its range and reads them through a fixed window, parsing fields straight from the
+    // bytes into primitive column chunks. The chunks, in file order, then go through a two-pass counting
+    // sort into the CSR arrays: pass one maps ids to indices, counts out-degrees and fixes stages, pass
+    // two places the arcs and releases each chunk. Arcs keep file order per node, as addEdge would.
+    // Only the CSR view is built; the graph's maps and Edge objects wait for their first use.
+    static final class Ingest {
+        static final int WINDOW = 1 << 20; // bytes per worker read window; also the longest row allowed
+        static final int CHUNK = 1 << 16;  // rows per column chunk
+        final Path file;
+        final int threads;
+        final LongAdder rowsRead = new LongAdder(); // live progress while run() parses
+        long rows, parseNanos, totalNanos;
+
+        Ingest(Path file, int threads){
+            if(threads < 1) throw new IllegalArgumentException("threads must be positive");
+            this.file = file;
+            this.threads = threads;
+        }
+
+        double rowsPerSecond(){ return totalNanos==0 ? 0 : rows * 1e9 / totalNanos; }
+
+        public String toString(){
+            return String.format("%d rows in %.1f ms (parse %.1f ms), %.0f rows/s", rows, totalNanos/1e6, parseNanos/1e6, rowsPerSecond());
+        }
+
+        Graph run() throws IOException {
+            long t0 = System.nanoTime();
+            List<Chunk> chunks = new ArrayList<>();
+            try(FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)){
+                long size = ch.size();
+                int p = (int)Math.min(threads, size / WINDOW + 1);
+                ExecutorService pool = Executors.newFixedThreadPool(p);
+                try {
+                    List<Future<List<Chunk>>> parts = new ArrayList<>();
+                    for(int i = 0; i < p; i++){
+                        long lo = size * i / p, hi = size * (i+1) / p;
+                        parts.add(pool.submit(() -> new RowReader(ch, lo, hi).readAll(rowsRead)));
+                    }
+                    for(Future<List<Chunk>> f: parts) chunks.addAll(f.get());
+                } catch(InterruptedException e){
+                    Thread.currentThread().interrupt();
+                    throw new IOException("ingest interrupted", e);
+                } catch(ExecutionException e){
+                    if(e.getCause() instanceof IOException) throw (IOException)e.getCause();
+                    if(e.getCause() instanceof RuntimeException) throw (RuntimeException)e.getCause();
+                    throw new IOException(e.getCause());
+                } finally {
+                    pool.shutdownNow();
+                }
+            }
+            parseNanos = System.nanoTime() - t0;
+
+            int m = 0;
+            for(Chunk c: chunks) m += c.size;
+            int[] all = new int[2*m];
+            for(int k = 0, at = 0; k < chunks.size(); k++){
+                Chunk c = chunks.get(k);
+                System.arraycopy(c.from, 0, all, at, c.size);
+                System.arraycopy(c.to, 0, all, at + c.size, c.size);
+                at += 2*c.size;
+            }
+            Arrays.parallelSort(all);
+            int n = 0;
+            for(int k = 0; k < all.length; k++) if(k==0 || all[k] != all[k-1]) all[n++] = all[k];
+            int[] ids = Arrays.copyOf(all, n);
+            all = null;
+            chunks.parallelStream().forEach(c -> { // ids -> indices, in place
+                for(int k = 0; k < c.size; k++){
+                    c.from[k] = Arrays.binarySearch(ids, c.from[k]);
+                    c.to[k] = Arrays.binarySearch(ids, c.to[k]);
+                }
+            });
+
+            // pass one: out-degrees and stages
+            int[] stage = new int[n], offsets = new int[n+1];
+            boolean[] staged = new boolean[n];
+            for(Chunk c: chunks){
+                for(int k = 0; k < c.size; k++){
+                    offsets[c.from[k]+1]++;
+                    fixStage(ids, stage, staged, c.from[k], c.fromStage[k]);
+                    fixStage(ids, stage, staged, c.to[k], c.toStage[k]);
+                }
+            }
+            for(int u = 0; u < n; u++) offsets[u+1] += offsets[u];
+
+            // pass two: place arcs in file order
+            int[] targets = new int[m], fill = Arrays.copyOf(offsets, n);
+            double[] cost = new double[m], travelTime = new double[m];
+            for(int k = 0; k < chunks.size(); k++){
+                Chunk c = chunks.get(k);
+                for(int r = 0; r < c.size; r++){
+                    int a = fill[c.from[r]]++;
+                    targets[a] = c.to[r];
+                    cost[a] = c.cost[r];
+                    travelTime[a] = c.time[r];
+                }
+                chunks.set(k, null);
+            }
+
+            Graph g = new Graph();
+            g.csr = new Csr(++g.lastVersion, new Layout(ids, stage, offsets, targets, cost, travelTime));
+            g.lazy = true;
+            rows = m;
+            totalNanos = System.nanoTime() - t0;
+            return g;
+        }
+
+        private static void fixStage(int[] ids, int[] stage, boolean[] staged, int v, int st){
+            if(!staged[v]){ staged[v] = true; stage[v] = st; }
+            else if(stage[v] != st) throw new IllegalArgumentException("node " + ids[v] + " given stages " + stage[v] + " and " + st);
+        }
+
+        // one worker's rows, as parsed columns
+        static final class Chunk {
+            final int[] from = new int[CHUNK], to = new int[CHUNK], fromStage = new int[CHUNK], toStage = new int[CHUNK];
+            final double[] cost = new double[CHUNK], time = new double[CHUNK];
+            int size;
+        }
+
+        // Reads the rows starting in [lo, hi) through a sliding window: buf[p .. lim) holds file bytes
+        // from base + p on. A row that crosses hi is read to its end; the next range skips it.
+        static final class RowReader {
+            private static final long EXACT = 1L << 53; // integers up to here are exact doubles
+            private static final double[] POW10 = new double[23];
+            static { POW10[0] = 1; for(int i = 1; i < POW10.length; i++) POW10[i] = POW10[i-1] * 10; }
+
+            private final FileChannel ch;
+            private final long lo, hi;
+            private final byte[] buf = new byte[WINDOW];
+            private long base;
+            private int p, lim, q; // q: parse cursor inside the current row
+            private boolean eof;
+
+            RowReader(FileChannel ch, long lo, long hi){ this.ch = ch; this.lo = lo; this.hi = hi; }
+
+            List<Chunk> readAll(LongAdder progress) throws IOException {
+                List<Chunk> out = new ArrayList<>();
+                Chunk c = new Chunk();
+                out.add(c);
+                base = lo > 0 ? lo-1 : 0;
+                if(lo > 0){ // keep this row only if lo is a row start, i.e. byte lo-1 ends a row
+                    int eol = lineEnd();
+                    if(eol < 0) return out;
+                    p = buf[p]=='\n' ? p+1 : Math.min(eol+1, lim);
+                }
+                boolean first = lo==0;
+                while(base + p < hi){
+                    int eol = lineEnd();
+                    if(eol < 0) break;
+                    int end = eol > p && buf[eol-1]=='\r' ? eol-1 : eol;
+                    q = p;
+                    skipBlanks(end);
+                    boolean numeric = q < end && (buf[q]=='-' || buf[q]=='+' || (buf[q] >= '0' && buf[q] <= '9'));
+                    if(numeric){
+                        if(c.size==CHUNK){ progress.add(c.size); c = new Chunk(); out.add(c); }
+                        int r = c.size;
+                        c.from[r] = nextInt(end);
+                        c.to[r] = nextInt(end);
+                        c.cost[r] = nextDouble(end);
+                        c.time[r] = nextDouble(end);
+                        c.fromStage[r] = nextInt(end);
+                        c.toStage[r] = nextInt(end);
+                        skipBlanks(end);
+                        if(q != end) throw malformed();
+                        c.size++;
+                    } else if(q < end && !first) throw malformed(); // only the file's first row may be a header
+                    first = false;
+                    p = Math.min(eol+1, lim);
+                }
+                progress.add(c.size);
+                return out;
+            }
+
+            // index of the '\n' ending the row at p (lim at end of file), reading more as needed; -1 if no row is left
+            private int lineEnd() throws IOException {
+                for(int from = p; ; ){
+                    for(int i = from; i < lim; i++) if(buf[i]=='\n') return i;
+                    if(eof) return p < lim ? lim : -1;
+                    if(p==0 && lim==buf.length) throw new IllegalArgumentException("row at byte " + base + " is longer than " + WINDOW + " bytes");
+                    from = lim - p;
+                    fill();
+                }
+            }
+
+            // slide the unread tail to the front and read behind it
+            private void fill() throws IOException {
+                System.arraycopy(buf, p, buf, 0, lim - p);
+                base += p;
+                lim -= p;
+                p = 0;
+                int got = ch.read(ByteBuffer.wrap(buf, lim, buf.length - lim), base + lim);
+                if(got < 0) eof = true; else lim += got;
+            }
+
+            private void skipBlanks(int end){ while(q < end && (buf[q]==' ' || buf[q]=='\t')) q++; }
+
+            // after a field: step over the separator, if any
+            private void endField(int end){
+                skipBlanks(end);
+                if(q < end){
+                    if(buf[q] != ',') throw malformed();
+                    q++;
+                }
+            }
+
+            private int nextInt(int end){
+                skipBlanks(end);
+                boolean neg = false;
+                if(q < end && (buf[q]=='-' || buf[q]=='+')) neg = buf[q++]=='-';
+                int start = q;
+                long v = 0;
+                while(q < end && buf[q] >= '0' && buf[q] <= '9'){
+                    v = v*10 + (buf[q++] - '0');
+                    if(v > Integer.MAX_VALUE + 1L) throw malformed();
+                }
+                if(q==start) throw malformed();
+                v = neg ? -v : v;
+                if(v > Integer.MAX_VALUE) throw malformed();
+                endField(end);
+                return (int)v;
+            }
+
+            // Decimal digits with an optional exponent are read into an exact integer mantissa and one
+            // power of ten, which rounds exactly like Double.parseDouble. Anything else (too many
+            // digits, huge exponents, "Infinity") goes through Double.parseDouble on the field text.
+            private double nextDouble(int end){
+                skipBlanks(end);
+                int start = q;
+                boolean neg = false;
+                if(q < end && (buf[q]=='-' || buf[q]=='+')) neg = buf[q++]=='-';
+                long mant = 0;
+                int exp = 0, digits = 0;
+                boolean exact = true;
+                for(boolean frac = false; q < end; q++){
+                    byte b = buf[q];
+                    if(b=='.' && !frac){ frac = true; continue; }
+                    if(b < '0' || b > '9') break;
+                    digits++;
+                    if(mant < EXACT / 10){ mant = mant*10 + (b - '0'); if(frac) exp--; }
+                    else { exact = false; if(!frac) exp++; }
+                }
+                if(q < end && (buf[q]=='e' || buf[q]=='E')){
+                    q++;
+                    boolean eneg = false;
+                    if(q < end && (buf[q]=='-' || buf[q]=='+')) eneg = buf[q++]=='-';
+                    int e = 0, es = q;
+                    while(q < end && buf[q] >= '0' && buf[q] <= '9' && e < 10000) e = e*10 + (buf[q++] - '0');
+                    if(q==es) exact = false;
+                    exp += eneg ? -e : e;
+                }
+                skipBlanks(end);
+                if(digits==0 || !exact || exp < -22 || exp > 22 || (q < end && buf[q] != ',')) return slowDouble(start, end);
+                double v = exp < 0 ? mant / POW10[-exp] : mant * POW10[exp];
+                endField(end);
+                return neg ? -v : v;
+            }
+
+            private double slowDouble(int start, int end){
+                q = start;
+                while(q < end && buf[q] != ',') q++;
+                try {
+                    double v = Double.parseDouble(new String(buf, start, q - start, java.nio.charset.StandardCharsets.US_ASCII).trim());
+                    endField(end);
+                    return v;
+                } catch(NumberFormatException e){
+                    throw malformed();
+                }
+            }
+
+            private IllegalArgumentException malformed(){
+                return new IllegalArgumentException("malformed row at byte " + (base + p));
+            }
+        }
+    }
+
+    // ---------- Binary format ----------
+
+    // snapshot the CSR view and the current costs into a file MappedGraph.open can map back
+    void writeBinary(Path file) throws IOException {
+        Csr c = freeze();
+        MappedGraph.write(c, c.costs, file);
+    }
+
+    // ---------- Single-source distances ----------
+
+    // node id of each entry in the distance arrays below (ascending)
+    int[] nodeIds(){ return freeze().ids.clone(); }
+
+    // sequential single-source distances, entry i for nodeIds()[i]; null if sourceId is unknown
+    double[] shortestDistances(int sourceId){
+        Csr c = freeze();
+        int s = c.index(sourceId);
+        if(s < 0) return null;
+        double[] dist = new double[c.n];
+        shortestPathTree(c, c.costs, new int[]{s}, 1, false, dist, null, null);
+        return dist;
+    }
+
+    double[] shortestDistancesParallel(int sourceId, double delta){
+        return shortestDistancesParallel(sourceId, delta, ForkJoinPool.commonPool());
+    }
+
+    // Delta-stepping: bucket i holds nodes with tentative distance in [i*delta, (i+1)*delta). A bucket is
+    // emptied by repeated parallel rounds over light arcs (cost <= delta), which can only refill the same
+    // or later buckets, then its settled nodes relax their heavy arcs once. Relaxation is an atomic min
+    // on the raw bits of a non-negative double, whose order matches the numeric order. Same distances
+    // as shortestDistances; delta trades parallel work per round against extra re-relaxations.
+    double[] shortestDistancesParallel(int sourceId, double delta, ForkJoinPool pool){
+        if(!(delta > 0)) throw new IllegalArgumentException("delta must be positive");
+        Csr c = freeze();
+        int s = c.index(sourceId);
+        if(s < 0) return null;
+        CostVersion w = c.costs;
+        AtomicLongArray dist = new AtomicLongArray(c.n);
+        for(int v = 0; v < c.n; v++) dist.set(v, Double.doubleToRawLongBits(INF));
+        dist.set(s, Double.doubleToRawLongBits(0.0));
+        long[] queuedIn = new long[c.n]; // bucket v currently sits in, -1 if none
+        int[] settledIn = new int[c.n];  // round stamp: v already in this bucket's settled list
+        Arrays.fill(queuedIn, -1);
+        TreeMap<Long, IntList> buckets = new TreeMap<>();
+        IntList first = new IntList();
+        first.add(s);
+        buckets.put(0L, first);
+        queuedIn[s] = 0;
+        int round = 0;
+        while(!buckets.isEmpty()){
+            Map.Entry<Long, IntList> e = buckets.pollFirstEntry();
+            long i = e.getKey();
+            IntList frontier = e.getValue(), settled = new IntList();
+            round++;
+            while(frontier.size > 0){
+                IntList live = new IntList(frontier.size);
+                for(int k = 0; k < frontier.size; k++){
+                    int v = frontier.get(k);
+                    if(queuedIn[v] != i) continue; // moved to an earlier bucket, or already taken
+                    queuedIn[v] = -1;
+                    live.add(v);
+                    if(settledIn[v] != round){ settledIn[v] = round; settled.add(v); }
+                }
+                IntList improved = pool.invoke(new Relax(c, w, dist, live.a, 0, live.size, delta, true));
+                frontier = new IntList();
+                distribute(dist, improved, delta, queuedIn, buckets, i, frontier);
+            }
+            IntList improved = pool.invoke(new Relax(c, w, dist, settled.a, 0, settled.size, delta, false));
+            distribute(dist, improved, delta, queuedIn, buckets, i, null);
+        }
+        double[] out = new double[c.n];
+        for(int v = 0; v < c.n; v++) out[v] = Double.longBitsToDouble(dist.get(v));
+        return out;
+    }
+
+    // file improved nodes under their current bucket; the bucket being emptied goes to `current`
+    private static void distribute(AtomicLongArray dist, IntList improved, double delta, long[] queuedIn,
+                                   TreeMap<Long, IntList> buckets, long i, IntList current){
+        for(int k = 0; k < improved.size; k++){
+            int v = improved.get(k);
+            long b = (long)(Double.longBitsToDouble(dist.get(v)) / delta);
+            if(queuedIn[v]==b) continue;
+            queuedIn[v] = b;
+            if(b==i && current != null) current.add(v);
+            else buckets.computeIfAbsent(b, x -> new IntList()).add(v);
+        }
+    }
+
+    // relax the light (or heavy) arcs of nodes[lo, hi) in parallel; returns the heads that improved
+    private static final class Relax extends RecursiveTask<IntList> {
+        private static final long serialVersionUID = 1L;
+        private static final int LEAF = 256;
+        final Csr c; final CostVersion w; final AtomicLongArray dist;
+        final int[] nodes; final int lo, hi; final double delta; final boolean light;
+
+        Relax(Csr c, CostVersion w, AtomicLongArray dist, int[] nodes, int lo, int hi, double delta, boolean light){
+            this.c = c; this.w = w; this.dist = dist; this.nodes = nodes; this.lo = lo; this.hi = hi; this.delta = delta; this.light = light;
+        }
+
+        protected IntList compute(){
+            if(hi - lo > LEAF){
+                int mid = (lo + hi) >>> 1;
+                Relax left = new Relax(c, w, dist, nodes, lo, mid, delta, light);
+                left.fork();
+                IntList right = new Relax(c, w, dist, nodes, mid, hi, delta, light).compute();
+                IntList out = left.join();
+                for(int k = 0; k < right.size; k++) out.add(right.get(k));
+                return out;
+            }
+            IntList out = new IntList();
+            for(int k = lo; k < hi; k++){
+                int u = nodes[k];
+                double du = Double.longBitsToDouble(dist.get(u));
+                for(int a = c.offsets[u]; a < c.offsets[u+1]; a++){
+                    double cost = w.get(a);
+                    if((cost <= delta) != light) continue;
+                    int v = c.targets[a];
+                    long nb = Double.doubleToRawLongBits(du + cost);
+                    for(long cur = dist.get(v); nb < cur; cur = dist.get(v)){
+                        if(dist.compareAndSet(v, cur, nb)){ out.add(v); break; }
+                    }
+                }
+            }
+            return out;
+        }
+    }
+
+    // ---------- Many-to-many ----------
+
+    double[] distanceMatrix(int[] sources, int[] targets){ return distanceMatrix(sources, targets, false); }
+
+    // |S| x |T| costs, row-major: m[i*|T| + j] = cost(sources[i] -> targets[j]), INF if unreachable
+    // or unknown. With a contraction hierarchy already customized for the current costs
+    // (buildContractionHierarchy, or earlier CH queries) it is bucket-based: one backward upward
+    // search per target leaves (j, dist) in a bucket at every node it settles, then one forward
+    // upward search per source scans the buckets of the nodes it settles. Without one it never builds
+    // it, since that can cost far more than the matrix: it runs plain Dijkstra instead. Either way the
+    // per-source phase can run across cores.
+    double[] distanceMatrix(int[] sources, int[] targets, boolean parallel){
+        Csr c = freeze();
+        CostVersion w = c.costs;
+        ContractionHierarchy.Metric metric = c.ch==null ? null : hierarchy(c, w);
+        if(metric==null) return dijkstraMatrix(c, w, sources, targets, parallel);
+        ContractionHierarchy ch = metric.h();
+        int nt = targets.length;
+        double[] m = new double[sources.length * nt];
+        Arrays.fill(m, INF);
+        // backward phase: gather (node, target, dist) and counting-sort it into per-node buckets
+        IntList bNode = new IntList(), bTarget = new IntList();
+        double[] bDist = new double[16];
+        SearchSpace sp = QueryContext.get(c.n).bwd;
+        IntList settled = new IntList();
+        for(int j = 0; j < nt; j++){
+            int t = c.index(targets[j]);
+            if(t < 0) continue;
+            sp.reset(c.n);
+            upwardSearch(metric, sp, t, false, settled);
+            if(bNode.size + settled.size > bDist.length) bDist = Arrays.copyOf(bDist, Math.max(bDist.length*2, bNode.size + settled.size));
+            for(int k = 0; k < settled.size; k++){
+                int u = settled.get(k);
+                bDist[bNode.size] = sp.dist(u);
+                bNode.add(u);
+                bTarget.add(j);
+            }
+        }
+        int[] bucketOff = new int[c.n+1];
+        for(int k = 0; k < bNode.size; k++) bucketOff[bNode.get(k)+1]++;
+        for(int u = 0; u < c.n; u++) bucketOff[u+1] += bucketOff[u];
+        int[] bucketTarget = new int[bNode.size], fill = Arrays.copyOf(bucketOff, c.n);
+        double[] bucketDist = new double[bNode.size];
+        for(int k = 0; k < bNode.size; k++){
+            int slot = fill[bNode.get(k)]++;
+            bucketTarget[slot] = bTarget.get(k);
+            bucketDist[slot] = bDist[k];
+        }
+        // forward phase: each source writes only its own row, so rows can go in parallel
+        IntStream rows = IntStream.range(0, sources.length);
+        (parallel ? rows.parallel() : rows).forEach(i -> {
+            int s = c.index(sources[i]);
+            if(s < 0) return;
+            SearchSpace f = QueryContext.get(c.n).fwd;
+            IntList reached = new IntList();
+            upwardSearch(metric, f, s, true, reached);
+            int row = i * nt;
+            for(int k = 0; k < reached.size; k++){
+                int u = reached.get(k);
+                double du = f.dist(u);
+                for(int b = bucketOff[u]; b < bucketOff[u+1]; b++){
+                    double cand = du + bucketDist[b];
+                    if(cand < m[row + bucketTarget[b]]) m[row + bucketTarget[b]] = cand;
+                }
+            }
+        });
+        return m;
+    }
+
+    // One Dijkstra per row of the smaller side: forward from each source, or backward over the reverse
+    // index from each target when targets are fewer. Each stops once the other side is all settled.
+    private static double[] dijkstraMatrix(Csr c, CostVersion w, int[] sources, int[] targets, boolean parallel){
+        boolean backward = targets.length < sources.length;
+        int[] from = backward ? targets : sources, to = backward ? sources : targets;
+        int nt = targets.length;
+        double[] m = new double[sources.length * nt];
+        Arrays.fill(m, INF);
+        IntStream rows = IntStream.range(0, from.length);
+        (parallel ? rows.parallel() : rows).forEach(i -> {
+            int s = c.index(from[i]);
+            if(s < 0) return;
+            QueryContext ctx = QueryContext.get(c.n);
+            SearchSpace sp = ctx.fwd, pending = ctx.bwd; // pending: 0.0 = still to settle, 1.0 = settled
+            int left = 0;
+            for(int id: to){
+                int t = c.index(id);
+                if(t >= 0 && pending.dist(t)==INF){ pending.set(t, 0.0, -1); left++; }
+            }
+            DHeap pq = sp.heap;
+            sp.setDist(s, 0.0);
+            pq.push(s, 0.0);
+            while(left > 0 && !pq.isEmpty()){
+                int u = pq.pop();
+                if(pending.dist(u)==0.0){ pending.set(u, 1.0, -1); left--; }
+                double dU = sp.dist(u);
+                int lo = backward ? c.rOffsets[u] : c.offsets[u], hi = backward ? c.rOffsets[u+1] : c.offsets[u+1];
+                for(int a = lo; a < hi; a++){
+                    int v = backward ? c.rSources[a] : c.targets[a];
+                    double nd = dU + w.get(backward ? c.rArcs[a] : a);
+                    if(nd < sp.dist(v)){ sp.setDist(v, nd); pq.push(v, nd); }
+                }
+            }
+            pq.clear();
+            for(int j = 0; j < to.length; j++){
+                int t = c.index(to[j]);
+                if(t >= 0) m[backward ? j*nt + i : i*nt + j] = sp.dist(t);
+            }
+        });
+        return m;
+    }
+
+    // exhaustive search over upward hierarchy arcs, weighted by m's upW (up) or downW; records settled nodes
+    private static void upwardSearch(ContractionHierarchy.Metric m, SearchSpace sp, int s, boolean up, IntList settled){
+        ContractionHierarchy ch = m.h();
+        settled.clear();
+        sp.set(s, 0.0, -1);
+        sp.heap.push(s, 0.0);
+        while(!sp.heap.isEmpty()){
+            int u = sp.heap.pop();
+            settled.add(u);
+            double dU = sp.dist(u);
+            for(int e = ch.upOff[u]; e < ch.upOff[u+1]; e++){
+                int v = ch.upHead[e];
+                double nd = dU + (up ? m.up(e) : m.down(e));
+                if(nd < sp.dist(v)){
+                    sp.set(v, nd, u);
+                    sp.heap.push(v, nd);
+                }
+            }
+        }
+    }
+
+    // Batch processing with parallel stream (thread-safe read-only).
+    // DP and Dijkstra queries are grouped by (mode, source): each group runs one single-source search
+    // and answers all of its destinations from it. Other modes are point-to-point and run one by one.
+    // Results come back in query order.
+    List<Result> processBatchRequests(List<Query> queries){
+        return processBatchRequests(queries, null);
+    }
+
+    // Every search in the batch polls the one deadline, so a slow pair cannot hold the workers past
+    // it: unfinished queries come back as Result.timeout, finished ones as usual. Under a deadline no
+    // preprocessing is started: the reachability filter is used only if already built, ALT and
+    // BOUNDED use the landmark tables already valid (none means no heuristic) and CH queries without
+    // a current hierarchy run as Dijkstra without starting one.
+    List<Result> processBatchRequests(List<Query> queries, Deadline deadline){
+        Csr c = freeze(); // build the CSR view once, before the workers fan out
+        if(deadline==null && queries.stream().anyMatch(q -> q.mode==Mode.ALT || q.mode==Mode.BOUNDED)) landmarks(c, c.costs, null);
+        Query[] qs = queries.toArray(new Query[0]);
+        Result[] out = new Result[qs.length];
+        // sort key: source index in the high half, query position in the low half
+        long[] dpKeys = new long[qs.length], dijKeys = new long[qs.length];
+        int nDp = 0, nDij = 0;
+        IntList single = new IntList();
+        Reachability reach = deadline==null ? reachability(c) : c.reach; // unreachable pairs are answered here, before any search
+        for(int i = 0; i < qs.length; i++){
+            int s = c.index(qs[i].src), d = c.index(qs[i].dst);
+            if(s < 0 || d < 0) out[i] = Result.empty("invalid nodes");
+            else if(qs[i].mode==Mode.DP && c.stage[s] > c.stage[d]) out[i] = Result.empty("source after dest");
+            else if(reach != null && !reach.mayReach(s, d)) out[i] = Result.empty("no path");
+            else if(qs[i].mode==Mode.DP) dpKeys[nDp++] = (long)s << 32 | i;
+            else if(qs[i].mode==Mode.DIJKSTRA) dijKeys[nDij++] = (long)s << 32 | i;
+            else single.add(i);
+        }
+        int[] groups = sourceGroups(dpKeys, nDp), dijGroups = sourceGroups(dijKeys, nDij);
+        TreeCache cache = treeCache;
+        int nDpGroups = groups.length-1;
+        IntStream.range(0, nDpGroups + dijGroups.length-1 + single.size).parallel().forEach(g -> {
+            if(g < nDpGroups) answerStageGroup(c, qs, dpKeys, groups[g], groups[g+1], out, deadline);
+            else if((g -= nDpGroups) < dijGroups.length-1) answerDijkstraGroup(c, qs, dijKeys, dijGroups[g], dijGroups[g+1], out, deadline, cache);
+            else {
+                int i = single.get(g - (dijGroups.length-1));
+                Query q = qs[i];
+                Result r = q.mode==Mode.ALT ? findShortestPathALT(q.src, q.dst, deadline)
+                        : q.mode==Mode.BOUNDED ? findShortestPathBounded(q.src, q.dst, q.epsilon, deadline)
+                        : findShortestPathCH(q.src, q.dst, deadline);
+                out[i] = q.costOnly && r.ok ? Result.costOnly(r.cost) : r;
+            }
+        });
+        return Arrays.asList(out);
+    }
+
+    // sort keys[0..len) and return the start of each run of equal sources, plus len as sentinel
+    private static int[] sourceGroups(long[] keys, int len){
+        Arrays.sort(keys, 0, len);
+        IntList starts = new IntList();
+        for(int i = 0; i < len; i++) if(i==0 || (keys[i] >>> 32) != (keys[i-1] >>> 32)) starts.add(i);
+        starts.add(len);
+        return starts.toArray();
+    }
+
+    // one stage-table pass from the group's source up to its furthest destination stage
+    private static void answerStageGroup(Csr c, Query[] qs, long[] keys, int from, int to, Result[] out, Deadline deadline){
+        int s = (int)(keys[from] >>> 32);
+        DenseStageGraph dense = deadline==null ? denseStages(c, c.costs) : null;
+        if(dense != null){ answerDenseGroup(c, dense, qs, keys, from, to, out); return; }
+        int end = Integer.MIN_VALUE;
+        boolean track = false;
+        for(int k = from; k < to; k++){
+            Query q = qs[(int)keys[k]];
+            int d = c.index(q.dst);
+            if(d >= 0 && c.stage[d] >= c.stage[s]) end = Math.max(end, c.stage[d]);
+            track |= !q.costOnly;
+        }
+        SearchSpace dp = QueryContext.get(c.n).fwd;
+        int done = end == Integer.MIN_VALUE ? end : relaxStages(c, c.costs, dp, s, end, track, deadline);
+        for(int k = from; k < to; k++){
+            int i = (int)keys[k], d = c.index(qs[i].dst);
+            if(d < 0) out[i] = Result.empty("invalid nodes");
+            else if(c.stage[s] > c.stage[d]) out[i] = Result.empty("source after dest");
+            else if(c.stage[d] > done) out[i] = Result.timeout(dp.dist(d), 0.0);
+            else if(dp.dist(d)==INF) out[i] = Result.empty("no path");
+            else if(qs[i].costOnly) out[i] = Result.costOnly(dp.dist(d));
+            else {
+                int[] path = c.tracePath(dp, s, d);
+                out[i] = path==null ? Result.empty("reconstruction failed") : new Result(dp.dist(d), path);
+            }
+        }
+    }
+
+    // the same group as one chain of min-plus products up to the furthest destination stage
+    private static void answerDenseGroup(Csr c, DenseStageGraph dense, Query[] qs, long[] keys, int from, int to, Result[] out){
+        int[] a = dense.locate(c.ids[(int)(keys[from] >>> 32)]);
+        int end = a[0];
+        for(int k = from; k < to; k++){
+            int[] b = dense.locate(qs[(int)keys[k]].dst);
+            if(b != null) end = Math.max(end, b[0]);
+        }
+        double[][] dist = dense.sweep(a, end);
+        for(int k = from; k < to; k++){
+            int i = (int)keys[k];
+            int[] b = dense.locate(qs[i].dst);
+            if(b==null) out[i] = Result.empty("invalid nodes");
+            else if(b[0] < a[0]) out[i] = Result.empty("source after dest");
+            else if(dist[b[0]-a[0]][b[1]]==INF) out[i] = Result.empty("no path");
+            else if(qs[i].costOnly) out[i] = Result.costOnly(dist[b[0]-a[0]][b[1]]);
+            else out[i] = dense.route(dist, a, b);
+        }
+    }
+
+    // one Dijkstra from the group's source that stops once every destination is settled; with a tree
+    // cache, a cached tree answers the group outright and an admitted miss runs to completion to fill it
+    private static void answerDijkstraGroup(Csr c, Query[] qs, long[] keys, int from, int to, Result[] out,
+                                            Deadline deadline, TreeCache cache){
+        int s = (int)(keys[from] >>> 32);
+        CostVersion w = c.costs;
+        TreeCache.Tree tree = cache==null ? null : cache.get(s, w);
+        if(tree != null){
+            for(int k = from; k < to; k++){ int i = (int)keys[k]; out[i] = tree.route(c.index(qs[i].dst), qs[i].costOnly); }
+            return;
+        }
+        boolean full = cache != null && cache.admit(s);
+        QueryContext ctx = QueryContext.get(c.n);
+        SearchSpace sp = ctx.fwd, targets = ctx.bwd; // bwd only marks pending destinations
+        int pending = 0;
+        boolean track = false;
+        for(int k = from; k < to; k++){
+            Query q = qs[(int)keys[k]];
+            int d = c.index(q.dst);
+            if(d >= 0 && targets.dist(d)==INF){ targets.set(d, 0.0, -1); pending++; }
+            track |= !q.costOnly;
+        }
+        track |= full;
+        NodeQueue pq = ctx.queue(c.n, w, null);
+        sp.set(s, 0.0, -1);
+        pq.push(s, 0.0);
+        double settledKey = INF; // set when the deadline cuts the search: destinations not yet settled time out
+        for(int settled = 0; (full || pending > 0) && !pq.isEmpty(); ){
+            int u = pq.pop();
+            if(targets.dist(u)==0.0){ pending--; targets.set(u, 1.0, -1); } // 1.0: settled
+            double dU = sp.dist(u);
+            if(deadline != null && settled++ % Deadline.CHECK_EVERY==0 && deadline.expired()){ settledKey = dU; break; }
+            for(int a = c.offsets[u]; a < c.offsets[u+1]; a++){
+                int v = c.targets[a];
+                double nd = dU + w.get(a);
+                if(nd < sp.dist(v)){
+                    if(track) sp.set(v, nd, u); else sp.setDist(v, nd);
+                    pq.push(v, nd);
+                }
+            }
+        }
+        pq.clear();
+        if(full && settledKey==INF){ // ran to completion: keep the tree and answer from it
+            tree = new TreeCache.Tree(c, s, w.version, sp);
+            cache.put(tree);
+            for(int k = from; k < to; k++){ int i = (int)keys[k]; out[i] = tree.route(c.index(qs[i].dst), qs[i].costOnly); }
+            return;
+        }
+        for(int k = from; k < to; k++){
+            int i = (int)keys[k], d = c.index(qs[i].dst);
+            if(d < 0) out[i] = Result.empty("invalid nodes");
+            else if(settledKey != INF && targets.dist(d)==0.0) out[i] = Result.timeout(sp.dist(d), settledKey);
+            else if(sp.dist(d)==INF) out[i] = Result.empty("no path");
+            else if(qs[i].costOnly) out[i] = Result.costOnly(sp.dist(d));
+            else out[i] = new Result(sp.dist(d), c.tracePath(sp, s, d));
+        }
+    }
+
+    // Plain multi-source Dijkstra over the whole view (forward, or backward via the reverse index).
+    // Fills dist/parent, records nodes in settle order and returns how many were settled.
+    static int shortestPathTree(Csr c, CostVersion w, int[] sources, int ns, boolean backward, double[] dist, int[] parent, int[] order){
+        Arrays.fill(dist, INF);
+        if(parent != null) Arrays.fill(parent, -1);
+        DHeap pq = new DHeap(c.n);
+        for(int i = 0; i < ns; i++){ dist[sources[i]] = 0.0; pq.push(sources[i], 0.0); }
+        int settled = 0;
+        while(!pq.isEmpty()){
+            int u = pq.pop();
+            if(order != null) order[settled] = u;
+            settled++;
+            double dU = dist[u];
+            int from = backward ? c.rOffsets[u] : c.offsets[u], to = backward ? c.rOffsets[u+1] : c.offsets[u+1];
+            for(int a = from; a < to; a++){
+                int v = backward ? c.rSources[a] : c.targets[a];
+                double nd = dU + w.get(backward ? c.rArcs[a] : a);
+                if(nd < dist[v]){
+                    dist[v] = nd;
+                    if(parent != null) parent[v] = u;
+                    pq.push(v, nd);
+                }
+            }
+        }
+        return settled;
+    }
+
+    enum Mode { DP, DIJKSTRA, ALT, CH, BOUNDED }
+
+    // Cooperative time limit for a query or a whole batch. Searches poll it every CHECK_EVERY settled
+    // nodes (stage members for the DP); cancel() ends it early from any thread.
+    static final class Deadline {
+        static final int CHECK_EVERY = 1024;
+        private static final long NO_LIMIT = Long.MAX_VALUE / 2;
+        private final long at; // System.nanoTime() value
+        private final boolean unlimited;
+        private volatile boolean cancelled;
+
+        private Deadline(long at, boolean unlimited){ this.at = at; this.unlimited = unlimited; }
+
+        // nanoTime may be negative and wraps, so `at` is compared by difference only; budgets past
+        // NO_LIMIT would wrap that difference and mean no limit instead
+        static Deadline after(long nanos){
+            return nanos > NO_LIMIT ? new Deadline(0L, true) : new Deadline(System.nanoTime() + nanos, false);
+        }
+
+        void cancel(){ cancelled = true; }
+        boolean expired(){ return cancelled || (!unlimited && System.nanoTime() - at >= 0); }
+    }
+
+    // Per-thread scratch for one direction of a search. Entries are valid only while their stamp
+    // equals the current epoch, so starting a query is O(1) instead of an O(V) fill.
+    static final class SearchSpace {
+        double[] dist = new double[0];
+        int[] parent = new int[0], stamp = new int[0];
+        int epoch;
+        DHeap heap = new DHeap(0);
+
+        void reset(int n){
+            if(stamp.length < n){
+                dist = new double[n];
+                parent = new int[n];
+                stamp = new int[n];
+                heap = new DHeap(n);
+                epoch = 0;
+            } else heap.clear();
+            if(++epoch==0){ Arrays.fill(stamp, 0); epoch = 1; } // wrapped: old stamps could alias
+        }
+
+        double dist(int v){ return stamp[v]==epoch ? dist[v] : INF; }
+        int parent(int v){ return stamp[v]==epoch ? parent[v] : -1; }
+        void set(int v, double d, int p){ stamp[v] = epoch; dist[v] = d; parent[v] = p; }
+        // cost-only relaxation: parent(v) is left stale, so a space filled this way must not be traced
+        void setDist(int v, double d){ stamp[v] = epoch; dist[v] = d; }
+    }
+
+    // Reusable query state: one forward and one backward space per thread, grown to the largest
+    // graph seen. get() starts a fresh epoch on both, so steady-state queries allocate nothing.
+    static final class QueryContext {
+        private static final ThreadLocal<QueryContext> LOCAL = ThreadLocal.withInitial(QueryContext::new);
+        final SearchSpace fwd = new SearchSpace(), bwd = new SearchSpace();
+
+        private DialQueue dial;
+        private RadixHeap radix;
+
+        static QueryContext get(int n){
+            QueryContext ctx = LOCAL.get();
+            ctx.fwd.reset(n);
+            ctx.bwd.reset(n);
+            return ctx;
+        }
+
+        // queue for a forward search under cost version w; callers clear() it when done
+        NodeQueue queue(int n, CostVersion w, Engine engine){
+            if(engine==null) engine = Engine.of(w);
+            if(!w.integral || engine==Engine.HEAP) return fwd.heap;
+            if(engine==Engine.DIAL && w.maxCost <= Engine.DIAL_MAX_WEIGHT){
+                if(dial==null || !dial.fits(n, w.maxCost)) dial = new DialQueue(n, (int)Math.max(w.maxCost, 1));
+                return dial;
+            }
+            if(radix==null || !radix.fits(n)) radix = new RadixHeap(n);
+            return radix;
+        }
+    }
+
+    enum LandmarkSelection { FARTHEST, AVOID }
+
+    // Queue engines for Dijkstra. DIAL and RADIX need non-negative integral costs (seconds, cents).
+    enum Engine {
+        HEAP, DIAL, RADIX;
+        static final int DIAL_MAX_WEIGHT = 1 << 12;
+
+        // small integral weights: buckets; larger integral weights: radix heap; otherwise the 4-ary heap
+        static Engine of(CostVersion w){
+            if(!w.integral) return HEAP;
+            return w.maxCost <= DIAL_MAX_WEIGHT ? DIAL : RADIX;
+        }
+    }
+
+    static final class ParetoRoute {
+        final double cost, travelTime;
+        final List<Integer> path;
+        ParetoRoute(double cost, double travelTime, int[] path){ this.cost = cost; this.travelTime = travelTime; this.path = Result.ids(path); }
+        public String toString(){ return "cost="+cost+" time="+travelTime+" path="+path; }
+    }
+
+    // Primitive label pool for the Pareto search: label l is (node, cost, time) reached via pred[l].
+    // next[] chains the live labels of one node's bag; the queue is a binary heap of label ids.
+    private static final class Labels {
+        int[] node = new int[64], pred = new int[64], next = new int[64], heap = new int[64];
+        double[] cost = new double[64], time = new double[64];
+        boolean[] dead = new boolean[64];
+        int count, size;
+
+        int add(int v, double c, double t, int p){
+            if(count==node.length){
+                int cap = count*2;
+                node = Arrays.copyOf(node, cap); pred = Arrays.copyOf(pred, cap); next = Arrays.copyOf(next, cap);
+                cost = Arrays.copyOf(cost, cap); time = Arrays.copyOf(time, cap); dead = Arrays.copyOf(dead, cap);
+            }
+            node[count] = v; cost[count] = c; time[count] = t; pred[count] = p; next[count] = -1;
+            return count++;
+        }
+
+        // some label in the bag starting at head is within the slack factor of (c, t) on both criteria
+        boolean dominated(int head, double c, double t, double slack){
+            for(int l = head; l >= 0; l = next[l]) if(cost[l] <= c*slack && time[l] <= t*slack) return true;
+            return false;
+        }
+
+        // unlink and kill labels dominated by (c, t); returns the new bag head
+        int dropDominated(int head, double c, double t){
+            int first = head, prev = -1;
+            for(int l = head; l >= 0; l = next[l]){
+                if(c <= cost[l] && t <= time[l]){
+                    dead[l] = true;
+                    if(prev < 0) first = next[l]; else next[prev] = next[l];
+                } else prev = l;
+            }
+            return first;
+        }
+
+        private boolean less(int a, int b){ return cost[a] < cost[b] || (cost[a]==cost[b] && time[a] < time[b]); }
+
+        void push(int l){
+            if(size==heap.length) heap = Arrays.copyOf(heap, size*2);
+            int i = size++;
+            while(i > 0 && less(l, heap[(i-1)/2])){ heap[i] = heap[(i-1)/2]; i = (i-1)/2; }
+            heap[i] = l;
+        }
+
+        int pop(){
+            int top = heap[0], last = heap[--size], i = 0;
+            while(true){
+                int ch = 2*i+1;
+                if(ch >= size) break;
+                if(ch+1 < size && less(heap[ch+1], heap[ch])) ch++;
+                if(!less(heap[ch], last)) break;
+                heap[i] = heap[ch];
+                i = ch;
+            }
+            if(size > 0) heap[i] = last;
+            return top;
+        }
+    }
+
+    // Full single-source shortest-path tree kept current under cost updates, in the style of
+    // Ramalingam-Reps: an arc that gets dearer only disturbs the subtree hanging below it, an arc that
+    // gets cheaper only improves what is reachable through it. Writers hold the graph monitor and the
+    // tree's write lock; route() reads optimistically and falls back to a read lock on contention.
+    static final class DynamicTree {
+        final int sourceId;
+        private final StampedLock lock = new StampedLock();
+        private Csr csr;
+        private int source;
+        private double[] dist;
+        private int[] parentArc;    // arc slot entering v on its tree path, -1 at the source / unreached
+        private long version;       // cost version the tree reflects
+        volatile long changedAt;    // cost version at which the tree last changed
+
+        DynamicTree(int sourceId){ this.sourceId = sourceId; }
+
+        void rebuild(Csr c, CostVersion w){
+            long stamp = lock.writeLock();
+            try {
+                csr = c;
+                source = c.index(sourceId);
+                dist = new double[c.n];
+                parentArc = new int[c.n];
+                Arrays.fill(dist, INF);
+                Arrays.fill(parentArc, -1);
+                version = changedAt = w.version;
+                if(source < 0) return;
+                DHeap pq = QueryContext.get(c.n).fwd.heap;
+                dist[source] = 0.0;
+                pq.push(source, 0.0);
+                propagate(w, pq);
+            } finally { lock.unlockWrite(stamp); }
+        }
+
+        // move the tree from base to next given the arc slots that changed between them
+        void update(Csr c, CostVersion base, CostVersion next, IntList changed){
+            if(csr != c || version != base.version){ rebuild(c, next); return; }
+            long stamp = lock.writeLock();
+            try {
+                if(repair(base, next, changed)) changedAt = next.version;
+                version = next.version;
+            } finally { lock.unlockWrite(stamp); }
+        }
+
+        private boolean repair(CostVersion base, CostVersion w, IntList changed){
+            Csr c = csr;
+            QueryContext ctx = QueryContext.get(c.n);
+            DHeap pq = ctx.fwd.heap;
+            SearchSpace affected = ctx.bwd; // stamps mark nodes cut off by a dearer tree arc
+            IntList cut = new IntList();
+            // dearer tree arcs: collect the subtrees below them (children found through parentArc)
+            for(int i = 0; i < changed.size; i++){
+                int a = changed.get(i), v = c.targets[a];
+                if(w.get(a) <= base.get(a) || parentArc[v] != a || affected.dist(v)==0.0) continue;
+                affected.set(v, 0.0, -1);
+                cut.add(v);
+                for(int k = cut.size-1; k < cut.size; k++){
+                    int x = cut.get(k);
+                    for(int b = c.offsets[x]; b < c.offsets[x+1]; b++){
+                        int y = c.targets[b];
+                        if(parentArc[y]==b && affected.dist(y)!=0.0){ affected.set(y, 0.0, -1); cut.add(y); }
+                    }
+                }
+            }
+            for(int k = 0; k < cut.size; k++){ int v = cut.get(k); dist[v] = INF; parentArc[v] = -1; }
+            // re-attach each cut node through its best in-arc from outside the cut
+            for(int k = 0; k < cut.size; k++){
+                int v = cut.get(k);
+                for(int r = c.rOffsets[v]; r < c.rOffsets[v+1]; r++){
+                    int x = c.rSources[r];
+                    if(affected.dist(x)==0.0 || dist[x]==INF) continue;
+                    double nd = dist[x] + w.get(c.rArcs[r]);
+                    if(nd < dist[v]){ dist[v] = nd; parentArc[v] = c.rArcs[r]; }
+                }
+                if(dist[v] < INF) pq.push(v, dist[v]);
+            }
+            // cheaper arcs: seed the heads they now improve
+            boolean improved = false;
+            for(int i = 0; i < changed.size; i++){
+                int a = changed.get(i), v = c.targets[a], u = c.arcSource(a);
+                if(w.get(a) >= base.get(a) || dist[u]==INF) continue;
+                double nd = dist[u] + w.get(a);
+                if(nd < dist[v]){ dist[v] = nd; parentArc[v] = a; pq.push(v, nd); improved = true; }
+            }
+            return propagate(w, pq) || improved || cut.size > 0;
+        }
+
+        // Dijkstra from the queued nodes over upper-bound labels; true if any label dropped
+        private boolean propagate(CostVersion w, DHeap pq){
+            Csr c = csr;
+            boolean improved = false;
+            while(!pq.isEmpty()){
+                int x = pq.pop();
+                double dx = dist[x];
+                for(int a = c.offsets[x]; a < c.offsets[x+1]; a++){
+                    int y = c.targets[a];
+                    double nd = dx + w.get(a);
+                    if(nd < dist[y]){ dist[y] = nd; parentArc[y] = a; pq.push(y, nd); improved = true; }
+                }
+            }
+            return improved;
+        }
+
+        Result route(int destId){
+            long stamp = lock.tryOptimisticRead();
+            if(stamp != 0L){
+                try {
+                    Result r = read(destId);
+                    if(lock.validate(stamp)) return r;
+                } catch(RuntimeException torn){ /* raced a writer; retry under the read lock */ }
+            }
+            stamp = lock.readLock();
+            try { return read(destId); }
+            finally { lock.unlockRead(stamp); }
+        }
+
+        private Result read(int destId){
+            Csr c = csr;
+            double[] dist = this.dist;
+            int[] parentArc = this.parentArc;
+            int d = c.index(destId);
+            if(source < 0 || d < 0) return Result.empty("invalid nodes");
+            if(dist[d]==INF) return Result.empty("no path");
+            int len = 1;
+            for(int cur = d; cur != source; cur = c.arcSource(parentArc[cur])){
+                if(parentArc[cur] < 0 || len > c.n) return Result.empty("reconstruction failed");
+                len++;
+            }
+            int[] path = new int[len];
+            for(int cur = d, k = len-1; k >= 0; k--){
+                path[k] = c.ids[cur];
+                if(k > 0) cur = c.arcSource(parentArc[cur]);
+            }
+            return new Result(dist[d], path);
+        }
+    }
+
+    // Bounded LRU cache of full shortest-path trees, keyed by source index. A tree holds only for the
+    // cost version it was grown on: publishing a new version purges older trees, and a lookup checks
+    // the stamp against the version its caller pinned. Versions keep rising across CSR rebuilds, so
+    // the stamp also covers structural changes. Least recently used trees go first whenever the tree
+    // count or the byte budget is exceeded. A source earns a tree on its second miss among the
+    // recently missed ones, so one-off origins never push the hot ones out.
+    static final class TreeCache {
+        final int maxTrees;
+        final long maxBytes;
+        private final LinkedHashMap<Integer, Tree> trees = new LinkedHashMap<>(16, 0.75f, true); // access order
+        private final Set<Integer> seen; // recently missed sources, bounded, eldest dropped first
+        private long bytes, hits, misses, evictions, invalidations;
+
+        TreeCache(int maxTrees, long maxBytes){
+            if(maxTrees < 1 || maxBytes < 1) throw new IllegalArgumentException("cache needs room for a tree");
+            this.maxTrees = maxTrees;
+            this.maxBytes = maxBytes;
+            int ghosts = Math.max(1024, 4 * maxTrees); // ints are cheap to remember, trees are not
+            seen = Collections.newSetFromMap(new LinkedHashMap<Integer, Boolean>(){
+                protected boolean removeEldestEntry(Map.Entry<Integer, Boolean> e){ return size() > ghosts; }
+            });
+        }
+
+        // the tree from source s for cost version w, or null on a miss
+        synchronized Tree get(int s, CostVersion w){
+            Tree t = trees.get(s);
+            if(t != null && t.version != w.version){ drop(s, t); invalidations++; seen.add(s); t = null; }
+            if(t==null) misses++; else hits++;
+            return t;
+        }
+
+        // after a miss: true if s missed recently too, so its full tree is worth growing
+        synchronized boolean admit(int s){
+            if(seen.remove(s)) return true;
+            seen.add(s);
+            return false;
+        }
+
+        synchronized void put(Tree t){
+            if(t.bytes() > maxBytes) return; // could never fit
+            Tree old = trees.get(t.source);
+            if(old != null){
+                if(old.version > t.version) return; // a newer tree raced in
+                drop(t.source, old);
+            }
+            trees.put(t.source, t);
+            bytes += t.bytes();
+            Iterator<Tree> it = trees.values().iterator(); // eldest first; t itself is last and always fits
+            while(trees.size() > maxTrees || bytes > maxBytes){
+                bytes -= it.next().bytes();
+                it.remove();
+                evictions++;
+            }
+        }
+
+        // drop trees grown on a cost version older than v
+        synchronized void retain(long v){
+            for(Iterator<Tree> it = trees.values().iterator(); it.hasNext(); ){
+                Tree t = it.next();
+                if(t.version < v){ bytes -= t.bytes(); it.remove(); invalidations++; seen.add(t.source); }
+            }
+        }
+
+        private void drop(int s, Tree t){ trees.remove(s); bytes -= t.bytes(); }
+
+        synchronized int size(){ return trees.size(); }
+        synchronized long bytes(){ return bytes; }
+        synchronized long hits(){ return hits; }
+        synchronized long misses(){ return misses; }
+        synchronized long evictions(){ return evictions; }
+        synchronized long invalidations(){ return invalidations; }
+
+        public synchronized String toString(){
+            return String.format("%d trees, %d bytes, %d hits, %d misses, %d evictions, %d invalidations",
+                    trees.size(), bytes, hits, misses, evictions, invalidations);
+        }
+
+        // Immutable once built, so its lazy paths may outlive the batch that grew it.
+        static final class Tree {
+            final Csr csr;
+            final int source;
+            final long version;
+            final double[] dist;
+            final int[] parent; // index of the previous node, -1 at the source and unreached nodes
+
+            // copy a completed search out of its per-thread space
+            Tree(Csr c, int source, long version, SearchSpace sp){
+                this.csr = c; this.source = source; this.version = version;
+                dist = new double[c.n];
+                parent = new int[c.n];
+                for(int v = 0; v < c.n; v++){ dist[v] = sp.dist(v); parent[v] = sp.parent(v); }
+            }
+
+            long bytes(){ return 12L * dist.length + 64; }
+
+            Result route(int d, boolean costOnly){
+                if(d < 0) return Result.empty("invalid nodes");
+                if(dist[d]==INF) return Result.empty("no path");
+                if(costOnly) return Result.costOnly(dist[d]);
+                return new Result(dist[d], () -> path(d));
+            }
+
+            private int[] path(int d){
+                int len = 1;
+                for(int cur = d; cur != source; cur = parent[cur]) len++;
+                int[] path = new int[len];
+                for(int cur = d, k = len-1; k >= 0; cur = parent[cur]) path[k--] = csr.ids[cur];
+                return path;
+            }
+        }
+    }
+
+    // Open-addressing hash from a (from id, to id) pair, packed into one long, to an arc slot.
+    // Linear probing over a power-of-two table kept at most half full; vals[i] == -1 marks a free cell.
+    static final class ArcIndex {
+        private final long[] keys;
+        private final int[] vals;
+        private final int mask;
+
+        ArcIndex(int expected){
+            int cap = Integer.highestOneBit(Math.max(2, expected) * 2 - 1) << 1;
+            keys = new long[cap];
+            vals = new int[cap];
+            mask = cap - 1;
+            Arrays.fill(vals, -1);
+        }
+
+        private static long key(int from, int to){ return (long)from << 32 | (to & 0xffffffffL); }
+
+        private static int hash(long k){
+            k ^= k >>> 33; k *= 0xff51afd7ed558ccdL;
+            k ^= k >>> 33; k *= 0xc4ceb9fe1a85ec53L;
+            return (int)(k ^ (k >>> 33));
+        }
+
+        int get(int from, int to){
+            long k = key(from, to);
+            for(int i = hash(k) & mask; vals[i] >= 0; i = (i+1) & mask) if(keys[i]==k) return vals[i];
+            return -1;
+        }
+
+        // store slot unless the pair is present; returns the existing slot or -1 if inserted
+        int putIfAbsent(int from, int to, int slot){
+            long k = key(from, to);
+            int i = hash(k) & mask;
+            for(; vals[i] >= 0; i = (i+1) & mask) if(keys[i]==k) return vals[i];
+            keys[i] = k;
+            vals[i] = slot;
+            return -1;
+        }
+    }
+
+    // One published version of the arc cost column, split into fixed-size blocks. A version is never
+    // modified once published: a Writer copies only the blocks it touches and publishes a new one.
+    static final class CostVersion {
+        static final int SHIFT = 12, BLOCK = 1 << SHIFT, MASK = BLOCK - 1;
+        final long version;
+        final double decreased;  // running total of finite cost decreases over all arcs (ALT bounds rely on it)
+        final long reopened;     // arcs lowered from INF so far
+        final boolean integral;  // every cost is a whole number in [0, 2^53)
+        final double maxCost;    // upper bound on every cost (exact at build, may only overshoot after writes)
+        private final double[][] blocks;
+
+        CostVersion(double[] flat, long version){
+            this.version = version;
+            this.decreased = 0.0;
+            this.reopened = 0;
+            boolean whole = true;
+            double max = 0.0;
+            for(double c: flat){ whole &= isIntegral(c); max = Math.max(max, c); }
+            this.integral = whole;
+            this.maxCost = max;
+            blocks = new double[(flat.length + MASK) >>> SHIFT][];
+            for(int b = 0; b < blocks.length; b++)
+                blocks[b] = Arrays.copyOfRange(flat, b << SHIFT, Math.min(flat.length, (b+1) << SHIFT));
+        }
+
+        private CostVersion(long version, double decreased, long reopened, boolean integral, double maxCost, double[][] blocks){
+            this.version = version;
+            this.decreased = decreased;
+            this.reopened = reopened;
+            this.integral = integral;
+            this.maxCost = maxCost;
+            this.blocks = blocks;
+        }
+
+        static boolean isIntegral(double c){ return c >= 0 && c < 0x1p53 && c==Math.rint(c); }
+
+        double get(int a){ return blocks[a >>> SHIFT][a & MASK]; }
+
+        Writer writer(){ return new Writer(this); }
+
+        // Copy-on-write edit of a base version; not thread-safe, callers hold the graph monitor.
+        static final class Writer {
+            private final CostVersion base;
+            private final double[][] blocks;
+            private boolean touched, integral;
+            private double maxCost, decreased;
+            private long reopened;
+            private final IntList changed = new IntList();
+
+            Writer(CostVersion base){
+                this.base = base;
+                this.blocks = base.blocks.clone();
+                this.integral = base.integral;
+                this.maxCost = base.maxCost;
+                this.decreased = base.decreased;
+                this.reopened = base.reopened;
+            }
+
+            void set(int a, double cost){
+                int b = a >>> SHIFT;
+                if(blocks[b]==base.blocks[b]) blocks[b] = blocks[b].clone();
+                double old = blocks[b][a & MASK];
+                if(cost < old){
+                    if(old==INF) reopened++;
+                    else decreased += old - cost;
+                }
+                blocks[b][a & MASK] = cost;
+                touched = true;
+                integral &= isIntegral(cost);
+                maxCost = Math.max(maxCost, cost);
+                changed.add(a);
+            }
+
+            // arc slots written so far (may repeat)
+            IntList changedArcs(){ return changed; }
+
+            // the next version, or the base itself if nothing was written
+            CostVersion publish(){
+                if(!touched) return base;
+                long v = base.version + 1;
+                return new CostVersion(v, decreased, reopened, integral, maxCost, blocks);
+            }
+        }
+    }
+
+    // Customizable contraction hierarchy. Every hierarchy edge {v, h} with rank[v] < rank[h] is stored
+    // once at its lower end: upHead[e] = h. Weights live in a Metric per cost version:
+    // upW[e] = cost(v -> h), downW[e] = cost(h -> v), and upMid/downMid name the contracted node a
+    // shortcut runs through (-1 for an original arc).
+    static final class ContractionHierarchy {
+        // Past this degree a contraction leaves its neighbours' priorities stale: re-scoring them would
+        // cost deg^2 each, the lazy check at pop still catches any that rose, and by then the
+        // remaining graph is a dense core whose order matters little.
+        static final int UPDATE_MAX_DEG = 32;
+        final int[] rank, order;
+        final int[] upOff, upHead;
+        // ranks of the v below x, ascending: downRank[downOff[x] .. downOff[x+1]), edge {v, x} in downSlot
+        final int[] downOff, downRank, downSlot;
+        final long triangles; // lower triangles a full customization relaxes
+        // a probe in update() costs about this many triangles of a full customization (90k grid)
+        static final int PROBE_COST = 8;
+        // published weights, and the ones before them for queries that pinned the previous version
+        private volatile Metric metric, previous;
+        // full customizations run one at a time; while one runs, published updates queue their arcs
+        private final Object customizing = new Object();
+        private boolean catchingUp;
+        private CostVersion delivered;
+        private final IntList pending = new IntList();
+        private DHeap dirty; // hierarchy edges to re-customize, by rank of their lower end
+        private long probes;  // down-list slots read by update(), its measure of work
+
+        ContractionHierarchy(Csr c){
+            int n = c.n;
+            rank = new int[n];
+            order = new int[n];
+            // undirected working topology, shrinks as nodes get contracted
+            int[][] nb = new int[n][];
+            int[] deg = new int[n];
+            for(int u = 0; u < n; u++) nb[u] = new int[4];
+            for(int u = 0; u < n; u++){
+                for(int a = c.offsets[u]; a < c.offsets[u+1]; a++){
+                    int v = c.targets[a];
+                    if(v!=u && !contains(nb[u], deg[u], v)){
+                        nb[u] = add(nb[u], deg[u]++, v);
+                        nb[v] = add(nb[v], deg[v]++, u);
+                    }
+                }
+            }
+            int[] contractedNb = new int[n];
+            Marker seen = new Marker(n);
+            DHeap pq = new DHeap(n);
+            for(int u = 0; u < n; u++) pq.push(u, edgeDifference(nb, deg, u, seen));
+            int[][] up = new int[n][];
+            for(int r = 0; r < n; r++){
+                int v = pq.pop();
+                double p = edgeDifference(nb, deg, v, seen) + contractedNb[v];
+                if(!pq.isEmpty() && p > pq.minKey()){ pq.push(v, p); r--; continue; } // lazy update
+                rank[v] = r;
+                order[r] = v;
+                up[v] = Arrays.copyOf(nb[v], deg[v]);
+                Arrays.sort(up[v]);
+                // fill-in: connect every pair of remaining neighbours, then drop v
+                for(int i = 0; i < deg[v]; i++){
+                    int a = nb[v][i];
+                    deg[a] = remove(nb[a], deg[a], v);
+                    contractedNb[a]++;
+                }
+                for(int i = 0; i < deg[v]; i++){
+                    int a = nb[v][i];
+                    seen.mark(nb[a], deg[a]);
+                    for(int j = i+1; j < deg[v]; j++){
+                        int b = nb[v][j];
+                        if(!seen.has(b)){
+                            nb[a] = add(nb[a], deg[a]++, b);
+                            nb[b] = add(nb[b], deg[b]++, a);
+                        }
+                    }
+                }
+                if(deg[v] <= UPDATE_MAX_DEG){
+                    for(int i = 0; i < deg[v]; i++){
+                        int a = nb[v][i];
+                        pq.update(a, edgeDifference(nb, deg, a, seen) + contractedNb[a]);
+                    }
+                }
+                deg[v] = 0;
+            }
+            upOff = new int[n+1];
+            for(int u = 0; u < n; u++) upOff[u+1] = upOff[u] + up[u].length;
+            upHead = new int[upOff[n]];
+            for(int u = 0; u < n; u++) System.arraycopy(up[u], 0, upHead, upOff[u], up[u].length);
+            downOff = new int[n+1];
+            for(int x: upHead) downOff[x+1]++;
+            for(int u = 0; u < n; u++) downOff[u+1] += downOff[u];
+            downRank = new int[upHead.length];
+            downSlot = new int[upHead.length];
+            int[] fill = Arrays.copyOf(downOff, n);
+            for(int r = 0; r < n; r++){
+                int v = order[r];
+                for(int e = upOff[v]; e < upOff[v+1]; e++){
+                    int p = fill[upHead[e]]++;
+                    downRank[p] = r;
+                    downSlot[p] = e;
+                }
+            }
+            long t = 0;
+            for(int e = 0; e < upHead.length; e++) t += upOff[upHead[e]+1] - upOff[upHead[e]];
+            triangles = t;
+        }
+
+        // shortcuts added minus edges removed if v were contracted now
+        private static int edgeDifference(int[][] nb, int[] deg, int v, Marker seen){
+            int added = 0;
+            for(int i = 0; i < deg[v]; i++){
+                int a = nb[v][i];
+                seen.mark(nb[a], deg[a]);
+                for(int j = i+1; j < deg[v]; j++) if(!seen.has(nb[v][j])) added++;
+            }
+            return added - deg[v];
+        }
+
+        // membership test for one neighbour list at a time: mark() stamps the list, has() is O(1)
+        private static final class Marker {
+            private final int[] at;
+            private int stamp;
+
+            Marker(int n){ at = new int[n]; }
+
+            void mark(int[] a, int len){
+                if(++stamp==0){ Arrays.fill(at, 0); stamp = 1; }
+                for(int i = 0; i < len; i++) at[a[i]] = stamp;
+            }
+
+            boolean has(int x){ return at[x]==stamp; }
+        }
+
+        private static boolean contains(int[] a, int len, int x){
+            for(int i = 0; i < len; i++) if(a[i]==x) return true;
+            return false;
+        }
+
+        private static int[] add(int[] a, int len, int x){
+            if(len==a.length) a = Arrays.copyOf(a, len*2);
+            a[len] = x;
+            return a;
+        }
+
+        private static int remove(int[] a, int len, int x){
+            for(int i = 0; i < len; i++) if(a[i]==x){ a[i] = a[len-1]; return len-1; }
+            return len;
+        }
+
+        // the published weights if they are for cost version w, else null
+        Metric customized(CostVersion w){
+            Metric m = metric;
+            if(m != null && m.version==w.version) return m;
+            m = previous;
+            return m != null && m.version==w.version ? m : null;
+        }
+
+        // published weights are for a version after w (w was pinned before the latest update)
+        boolean ahead(CostVersion w){
+            Metric m = metric;
+            return m != null && m.version > w.version;
+        }
+
+        // hierarchy edge {lo, hi} stored at lo, or -1
+        int find(int lo, int hi){
+            int i = Arrays.binarySearch(upHead, upOff[lo], upOff[lo+1], hi);
+            return i<0 ? -1 : i;
+        }
+
+        // node whose up list holds edge e
+        int lower(int e){
+            int lo = 0, hi = rank.length-1;
+            while(lo < hi){
+                int mid = (lo + hi + 1) >>> 1;
+                if(upOff[mid] <= e) lo = mid; else hi = mid-1;
+            }
+            return lo;
+        }
+
+        // Full customization for the newest published costs. The version is read under the graph
+        // monitor (graph), so every later update reaches advance() and is applied before publishing.
+        Metric customize(Csr c, Object graph){
+            synchronized(customizing){
+                CostVersion w;
+                synchronized(graph){
+                    synchronized(this){
+                        catchingUp = true;
+                        delivered = null;
+                        pending.clear();
+                    }
+                    w = c.costs;
+                }
+                Metric m = new Metric(c, w);
+                synchronized(this){
+                    if(delivered != null) m = update(c, m, delivered, pending);
+                    catchingUp = false;
+                    pending.clear();
+                    previous = metric;
+                    metric = m;
+                }
+                return m;
+            }
+        }
+
+        // Called by the writer, under the graph monitor, before next is published: carries the
+        // weights from base to next by re-customizing only the edges above the changed arcs.
+        synchronized void advance(Csr c, CostVersion base, CostVersion next, IntList changed){
+            if(catchingUp){
+                for(int i = 0; i < changed.size; i++) pending.add(changed.get(i));
+                delivered = next;
+                return;
+            }
+            Metric m = metric;
+            if(m==null || m.version != base.version) return;
+            Metric up = update(c, m, next, changed);
+            previous = m;
+            metric = up;
+        }
+
+        // Weights for w from base, given that only the arcs in changed differ. An edge's weight is
+        // recomputed from its arcs and lower triangles, in rank order of its lower end and with the
+        // same tie-break as Metric(c, w), and only a change in value queues the edges whose
+        // triangles it closes, so the result equals a full customization for w. Blocks are copied
+        // on first write; base stays intact for queries still reading it. Once the work passes
+        // what a full customization costs (a big tick, or changes high up a poor order) the rest
+        // is done as one.
+        private Metric update(Csr c, Metric base, CostVersion w, IntList changed){
+            Metric m = new Metric(base, w.version);
+            if(dirty==null) dirty = new DHeap(Math.max(1, upHead.length));
+            DHeap q = dirty;
+            for(int i = 0; i < changed.size; i++){
+                int a = changed.get(i), u = c.arcSource(a), v = c.targets[a];
+                if(u==v) continue;
+                int lo = rank[u] < rank[v] ? u : v;
+                q.push(find(lo, u ^ v ^ lo), rank[lo]);
+            }
+            probes = 0;
+            while(!q.isEmpty()){
+                int e = q.pop(), lo = lower(e), hi = upHead[e];
+                if(probes > triangles / PROBE_COST){
+                    q.clear();
+                    return new Metric(c, w);
+                }
+                double up = INF, down = INF;
+                int upMid = -1, downMid = -1;
+                for(int a = c.arcIndex.get(c.ids[lo], c.ids[hi]); a >= 0; a = c.nextParallel[a]) up = Math.min(up, w.get(a));
+                for(int a = c.arcIndex.get(c.ids[hi], c.ids[lo]); a >= 0; a = c.nextParallel[a]) down = Math.min(down, w.get(a));
+                // walk the shorter down list in rank order and gallop through the other for each v
+                boolean flip = downOff[hi+1] - downOff[hi] < downOff[lo+1] - downOff[lo];
+                int walk = flip ? hi : lo, other = flip ? lo : hi;
+                probes += downOff[walk+1] - downOff[walk];
+                for(int i = downOff[walk], j = downOff[other], je = downOff[other+1]; i < downOff[walk+1] && j < je; i++){
+                    int rv = downRank[i], v = order[rv];
+                    j = downFind(j, je, rv);
+                    if(j==je || downRank[j] != rv) continue;
+                    int x = downSlot[flip ? j : i], y = downSlot[flip ? i : j]; // {v, lo} and {v, hi}
+                    double cand = m.down(x) + m.up(y); // lo -> v -> hi
+                    if(cand < up){ up = cand; upMid = v; }
+                    cand = m.down(y) + m.up(x);        // hi -> v -> lo
+                    if(cand < down){ down = cand; downMid = v; }
+                }
+                boolean moved = up != m.up(e) || down != m.down(e);
+                m.set(e, up, upMid, down, downMid, base);
+                if(!moved) continue;
+                probes += upOff[lo+1] - upOff[lo];
+                for(int f = upOff[lo]; f < upOff[lo+1]; f++){
+                    int x = upHead[f];
+                    if(x==hi) continue;
+                    q.push(rank[x] < rank[hi] ? find(x, hi) : find(hi, x), Math.min(rank[x], rank[hi]));
+                }
+            }
+            return m;
+        }
+
+        // first slot in [from, to) of a down list with rank >= r, galloping from `from`
+        private int downFind(int from, int to, int r){
+            int hi = from;
+            for(int step = 1; hi < to && downRank[hi] < r; step <<= 1){
+                probes++;
+                from = hi+1;
+                hi = from + step;
+            }
+            hi = Math.min(hi, to);
+            while(from < hi){
+                probes++;
+                int mid = (from + hi) >>> 1;
+                if(downRank[mid] < r) from = mid+1; else hi = mid;
+            }
+            return from;
+        }
+
+        // Weights in blocks of CostVersion.BLOCK edges, so an update copies only the blocks it writes.
+        final class Metric {
+            final long version;
+            private final double[][] upW, downW; // upW: cost(v -> h), downW: cost(h -> v)
+            private final int[][] upMid, downMid;
+
+            // Basic customization: load original arc costs, then walk nodes bottom-up and relax every
+            // lower triangle a -> v -> b into edge {a, b}. Exact for cost version w.
+            Metric(Csr c, CostVersion w){
+                version = w.version;
+                double[] upW = new double[upHead.length], downW = new double[upHead.length];
+                int[] upMid = new int[upHead.length], downMid = new int[upHead.length];
+                Arrays.fill(upW, INF);
+                Arrays.fill(downW, INF);
+                Arrays.fill(upMid, -1);
+                Arrays.fill(downMid, -1);
+                for(int u = 0; u < c.n; u++){
+                    for(int a = c.offsets[u]; a < c.offsets[u+1]; a++){
+                        int v = c.targets[a];
+                        if(v==u) continue;
+                        if(rank[u] < rank[v]){ int e = find(u, v); upW[e] = Math.min(upW[e], w.get(a)); }
+                        else { int e = find(v, u); downW[e] = Math.min(downW[e], w.get(a)); }
+                    }
+                }
+                // pos[b] = slot of b in up(v) while seenAt[b] == r+1. For a, b in up(v) with rank[a] < rank[b]
+                // the edge {a, b} is in up(a), so scanning up(a) meets each lower triangle exactly once.
+                int[] pos = new int[c.n], seenAt = new int[c.n];
+                for(int r = 0; r < order.length; r++){
+                    int v = order[r];
+                    for(int j = upOff[v]; j < upOff[v+1]; j++){ pos[upHead[j]] = j; seenAt[upHead[j]] = r+1; }
+                    for(int i = upOff[v]; i < upOff[v+1]; i++){
+                        int a = upHead[i];
+                        double av = downW[i], va = upW[i];
+                        for(int e = upOff[a]; e < upOff[a+1]; e++){
+                            int b = upHead[e];
+                            if(seenAt[b] != r+1) continue;
+                            int j = pos[b];
+                            double cand = av + upW[j]; // a -> v -> b
+                            if(cand < upW[e]){ upW[e] = cand; upMid[e] = v; }
+                            cand = downW[j] + va;      // b -> v -> a
+                            if(cand < downW[e]){ downW[e] = cand; downMid[e] = v; }
+                        }
+                    }
+                }
+                int blocks = (upHead.length + CostVersion.MASK) >>> CostVersion.SHIFT;
+                this.upW = new double[blocks][];
+                this.downW = new double[blocks][];
+                this.upMid = new int[blocks][];
+                this.downMid = new int[blocks][];
+                for(int b = 0; b < blocks; b++){
+                    int from = b << CostVersion.SHIFT, to = Math.min(upHead.length, from + CostVersion.BLOCK);
+                    this.upW[b] = Arrays.copyOfRange(upW, from, to);
+                    this.downW[b] = Arrays.copyOfRange(downW, from, to);
+                    this.upMid[b] = Arrays.copyOfRange(upMid, from, to);
+                    this.downMid[b] = Arrays.copyOfRange(downMid, from, to);
+                }
+            }
+
+            // shares every block with base until set() writes to it
+            private Metric(Metric base, long version){
+                this.version = version;
+                upW = base.upW.clone();
+                downW = base.downW.clone();
+                upMid = base.upMid.clone();
+                downMid = base.downMid.clone();
+            }
+
+            double up(int e){ return upW[e >>> CostVersion.SHIFT][e & CostVersion.MASK]; }
+
+            double down(int e){ return downW[e >>> CostVersion.SHIFT][e & CostVersion.MASK]; }
+
+            private void set(int e, double up, int upVia, double down, int downVia, Metric base){
+                int b = e >>> CostVersion.SHIFT, i = e & CostVersion.MASK;
+                if(upW[b]==base.upW[b]){
+                    upW[b] = upW[b].clone();
+                    downW[b] = downW[b].clone();
+                    upMid[b] = upMid[b].clone();
+                    downMid[b] = downMid[b].clone();
+                }
+                upW[b][i] = up;
+                downW[b][i] = down;
+                upMid[b][i] = upVia;
+                downMid[b][i] = downVia;
+            }
+
+            ContractionHierarchy h(){ return ContractionHierarchy.this; }
+
+            // append the original nodes of hierarchy arc from -> to (excluding from) to out
+            void unpack(int from, int to, IntList out){
+                int e = rank[from] < rank[to] ? find(from, to) : find(to, from);
+                int mid = rank[from] < rank[to] ? upMid[e >>> CostVersion.SHIFT][e & CostVersion.MASK]
+                                                : downMid[e >>> CostVersion.SHIFT][e & CostVersion.MASK];
+                if(mid < 0){ out.add(to); return; }
+                unpack(from, mid, out);
+                unpack(mid, to, out);
+            }
+        }
+    }
+
+    // Hub labels from pruned landmark labeling. Hubs go in descending degree order; a pruned Dijkstra
+    // from hub h (forward, then backward) labels only the nodes whose distance to or from h the labels
+    // so far do not already give, so lists stay short and come out sorted by hub rank. d(s, t) is the
+    // min over common hubs of out(s) + in(t). Flat layout: v's out-label is outHub/outDist[outOff[v]
+    // .. outOff[v+1]), likewise for in-labels. The file holds exactly these arrays, so load() maps
+    // it and queries run on the mapped pages.
+    static final class HubLabels {
+        private static final int MAGIC = 0x48554231; // "HUB1"
+        static final int FORMAT_VERSION = 2;
+        private static final int HEADER_BYTES = 32;
+        final long version; // cost version labelled, -1 for loaded labels not yet attached
+        final long fingerprint; // of the node ids, arcs and costs labelled; survives a round trip through a file
+        final int n;
+        private final IntBuffer ids, outOff, inOff, outHub, inHub;
+        private final DoubleBuffer outDist, inDist;
+
+        private HubLabels(long version, long fingerprint, int n, IntBuffer ids, IntBuffer outOff, IntBuffer inOff,
+                          IntBuffer outHub, IntBuffer inHub, DoubleBuffer outDist, DoubleBuffer inDist){
+            this.version = version; this.fingerprint = fingerprint; this.n = n; this.ids = ids;
+            this.outOff = outOff; this.inOff = inOff; this.outHub = outHub; this.inHub = inHub;
+            this.outDist = outDist; this.inDist = inDist;
+        }
+
+        HubLabels forVersion(long v){ return new HubLabels(v, fingerprint, n, ids, outOff, inOff, outHub, inHub, outDist, inDist); }
+
+        // 64-bit hash of the view's node ids, arcs and the costs of version w. Version numbers restart
+        // with every process, so a file is matched to a graph by this instead.
+        static long fingerprint(Csr c, CostVersion w){
+            long h = c.n;
+            for(int v = 0; v < c.n; v++) h = mix(h, c.ids[v]);
+            for(int v = 0; v <= c.n; v++) h = mix(h, c.offsets[v]);
+            for(int a = 0; a < c.targets.length; a++) h = mix(mix(h, c.targets[a]), Double.doubleToLongBits(w.get(a)));
+            return h;
+        }
+
+        private static long mix(long h, long x){
+            h = (h ^ x) * 0x9E3779B97F4A7C15L;
+            return h ^ (h >>> 31);
+        }
+
+        static HubLabels build(Csr c, CostVersion w){
+            int n = c.n;
+            long[] byDegree = new long[n];
+            for(int v = 0; v < n; v++){
+                long deg = (c.offsets[v+1] - c.offsets[v]) + (c.rOffsets[v+1] - c.rOffsets[v]);
+                byDegree[v] = -deg << 32 | v;
+            }
+            Arrays.sort(byDegree);
+            Label out = new Label(n), in = new Label(n);
+            double[] hubDist = new double[n]; // rank -> distance for h's own label during its searches
+            Arrays.fill(hubDist, INF);
+            SearchSpace sp = new SearchSpace();
+            for(int r = 0; r < n; r++){
+                int h = (int)byDegree[r];
+                prunedSearch(c, w, sp, h, r, false, out, in, hubDist);
+                prunedSearch(c, w, sp, h, r, true, in, out, hubDist);
+            }
+            int[] ids = c.ids.clone();
+            return new HubLabels(w.version, fingerprint(c, w), n, IntBuffer.wrap(ids),
+                    IntBuffer.wrap(out.offsets()), IntBuffer.wrap(in.offsets()),
+                    IntBuffer.wrap(out.hubs()), IntBuffer.wrap(in.hubs()),
+                    DoubleBuffer.wrap(out.dists()), DoubleBuffer.wrap(in.dists()));
+        }
+
+        // Forward: label in(v) with (r, d(h, v)) unless own(h) x other(v) already gives d(h, v) or less.
+        // Backward is the mirror image over reverse arcs. own is h's label on the searched side.
+        private static void prunedSearch(Csr c, CostVersion w, SearchSpace sp, int h, int r, boolean backward,
+                                         Label own, Label other, double[] hubDist){
+            for(int i = 0; i < own.len[h]; i++) hubDist[own.hub[h][i]] = own.dist[h][i];
+            sp.reset(c.n);
+            DHeap pq = sp.heap;
+            sp.set(h, 0.0, -1);
+            pq.push(h, 0.0);
+            while(!pq.isEmpty()){
+                int u = pq.pop();
+                double du = sp.dist(u);
+                boolean covered = false;
+                for(int i = 0; i < other.len[u] && !covered; i++) covered = hubDist[other.hub[u][i]] + other.dist[u][i] <= du;
+                if(covered) continue;
+                other.add(u, r, du);
+                if(!backward){
+                    for(int a = c.offsets[u]; a < c.offsets[u+1]; a++){
+                        int v = c.targets[a];
+                        double nd = du + w.get(a);
+                        if(nd < sp.dist(v)){ sp.set(v, nd, u); pq.push(v, nd); }
+                    }
+                } else {
+                    for(int x = c.rOffsets[u]; x < c.rOffsets[u+1]; x++){
+                        int v = c.rSources[x];
+                        double nd = du + w.get(c.rArcs[x]);
+                        if(nd < sp.dist(v)){ sp.set(v, nd, u); pq.push(v, nd); }
+                    }
+                }
+            }
+            for(int i = 0; i < own.len[h]; i++) hubDist[own.hub[h][i]] = INF;
+        }
+
+        // per-node growable label lists used while building
+        private static final class Label {
+            final int[][] hub; final double[][] dist; final int[] len;
+            Label(int n){ hub = new int[n][]; dist = new double[n][]; len = new int[n]; }
+            void add(int v, int r, double d){
+                if(hub[v]==null){ hub[v] = new int[4]; dist[v] = new double[4]; }
+                else if(len[v]==hub[v].length){ hub[v] = Arrays.copyOf(hub[v], len[v]*2); dist[v] = Arrays.copyOf(dist[v], len[v]*2); }
+                hub[v][len[v]] = r;
+                dist[v][len[v]++] = d;
+            }
+            int[] offsets(){
+                int[] off = new int[len.length+1];
+                for(int v = 0; v < len.length; v++) off[v+1] = off[v] + len[v];
+                return off;
+            }
+            int[] hubs(){
+                int[] off = offsets(), flat = new int[off[len.length]];
+                for(int v = 0; v < len.length; v++) if(len[v] > 0) System.arraycopy(hub[v], 0, flat, off[v], len[v]);
+                return flat;
+            }
+            double[] dists(){
+                int[] off = offsets();
+                double[] flat = new double[off[len.length]];
+                for(int v = 0; v < len.length; v++) if(len[v] > 0) System.arraycopy(dist[v], 0, flat, off[v], len[v]);
+                return flat;
+            }
+        }
+
+        // d(s, t) for node indices: merge of two lists sorted by hub rank
+        double dist(int s, int t){
+            int i = outOff.get(s), ie = outOff.get(s+1), j = inOff.get(t), je = inOff.get(t+1);
+            double best = INF;
+            while(i < ie && j < je){
+                int a = outHub.get(i), b = inHub.get(j);
+                if(a < b) i++;
+                else if(a > b) j++;
+                else best = Math.min(best, outDist.get(i++) + inDist.get(j++));
+            }
+            return best;
+        }
+
+        // d(sourceId, destId) without a Graph, INF if unreachable or unknown
+        double distance(int sourceId, int destId){
+            int s = index(sourceId), t = index(destId);
+            return s<0 || t<0 ? INF : dist(s, t);
+        }
+
+        private int index(int id){
+            int lo = 0, hi = n-1;
+            while(lo <= hi){
+                int mid = (lo + hi) >>> 1, x = ids.get(mid);
+                if(x < id) lo = mid+1; else if(x > id) hi = mid-1; else return mid;
+            }
+            return -1;
+        }
+
+        boolean sameNodes(int[] other){
+            if(other.length != n) return false;
+            for(int v = 0; v < n; v++) if(ids.get(v) != other[v]) return false;
+            return true;
+        }
+
+        // 32-byte header {MAGIC, FORMAT_VERSION, n, out entries, in entries, unused, fingerprint}, then
+        // ids, outOff, inOff, outHub, inHub, outDist, inDist, little-endian
+        void write(Path file) throws IOException {
+            try(FileChannel ch = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)){
+                ByteBuffer head = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+                head.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(n).putInt(outOff.get(n)).putInt(inOff.get(n)).putInt(0).putLong(fingerprint).flip();
+                while(head.hasRemaining()) ch.write(head);
+                for(IntBuffer b: new IntBuffer[]{ids, outOff, inOff, outHub, inHub}) BinaryIO.writeInts(ch, b);
+                for(DoubleBuffer b: new DoubleBuffer[]{outDist, inDist}) BinaryIO.writeDoubles(ch, b);
+            }
+        }
+
+        // map a file written by write(), one read-only mapping per array. Attach the result to a Graph to run findShortestPathHL on it.
+        static HubLabels load(Path file) throws IOException {
+            try(FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)){
+                if(ch.size() < HEADER_BYTES) throw new IOException("not a hub label file: " + file);
+                ByteBuffer head = ch.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+                if(head.getInt(0) != MAGIC) throw new IOException("not a hub label file: " + file);
+                if(head.getInt(4) != FORMAT_VERSION) throw new IOException("unsupported hub label format version " + head.getInt(4));
+                int n = head.getInt(8), outLen = head.getInt(12), inLen = head.getInt(16);
+                long size = HEADER_BYTES + 4L*n + 8L*(n+1) + 12L*outLen + 12L*inLen;
+                if(size != ch.size()) throw new IOException("hub label file is " + ch.size() + " bytes, header implies " + size);
+                long pos = HEADER_BYTES;
+                IntBuffer ids = BinaryIO.mapInts(ch, pos, n);              pos += 4L*n;
+                IntBuffer outOff = BinaryIO.mapInts(ch, pos, n+1);         pos += 4L*(n+1);
+                IntBuffer inOff = BinaryIO.mapInts(ch, pos, n+1);          pos += 4L*(n+1);
+                IntBuffer outHub = BinaryIO.mapInts(ch, pos, outLen);      pos += 4L*outLen;
+                IntBuffer inHub = BinaryIO.mapInts(ch, pos, inLen);        pos += 4L*inLen;
+                DoubleBuffer outDist = BinaryIO.mapDoubles(ch, pos, outLen); pos += 8L*outLen;
+                DoubleBuffer inDist = BinaryIO.mapDoubles(ch, pos, inLen);
+                return new HubLabels(-1, head.getLong(24), n, ids, outOff, inOff, outHub, inHub, outDist, inDist);
+            }
+        }
+    }
+
+    // SCC condensation with GRAIL interval labels. Tarjan emits components sinks first, so every DAG
+    // arc goes from a higher to a lower component number. Each of K traversals of the DAG gives
+    // component x a post-order rank post[x] and low[x], the smallest rank below it; x can reach y only
+    // if low[x] <= post[y] <= post[x] in every traversal. A failed test is a definite no, a pass a maybe.
+    static final class Reachability {
+        static final int K = 2;
+        final int[] comp;        // node -> component
+        final int[][] low, post; // [traversal][component]
+
+        Reachability(Csr c){
+            int n = c.n;
+            comp = new int[n];
+            Arrays.fill(comp, -1);
+            int[] index = new int[n], lowlink = new int[n], it = new int[n], call = new int[n], stack = new int[n];
+            Arrays.fill(index, -1);
+            int counter = 0, nc = 0, sp = 0;
+            for(int r = 0; r < n; r++){
+                if(index[r] >= 0) continue;
+                int top = 0;
+                call[0] = r; index[r] = lowlink[r] = counter++; it[r] = c.offsets[r]; stack[sp++] = r;
+                while(top >= 0){
+                    int u = call[top];
+                    if(it[u] < c.offsets[u+1]){
+                        int v = c.targets[it[u]++];
+                        if(index[v] < 0){
+                            index[v] = lowlink[v] = counter++; it[v] = c.offsets[v]; stack[sp++] = v;
+                            call[++top] = v;
+                        } else if(comp[v] < 0) lowlink[u] = Math.min(lowlink[u], index[v]); // still on the stack
+                        continue;
+                    }
+                    top--;
+                    if(lowlink[u]==index[u]){
+                        int v;
+                        do { v = stack[--sp]; comp[v] = nc; } while(v != u);
+                        nc++;
+                    }
+                    if(top >= 0) lowlink[call[top]] = Math.min(lowlink[call[top]], lowlink[u]);
+                }
+            }
+
+            // condensed DAG in CSR form (duplicate arcs are harmless)
+            int[] dOff = new int[nc+1];
+            for(int u = 0; u < n; u++)
+                for(int a = c.offsets[u]; a < c.offsets[u+1]; a++) if(comp[c.targets[a]] != comp[u]) dOff[comp[u]+1]++;
+            for(int x = 0; x < nc; x++) dOff[x+1] += dOff[x];
+            int[] dTo = new int[dOff[nc]], fill = Arrays.copyOf(dOff, nc);
+            for(int u = 0; u < n; u++)
+                for(int a = c.offsets[u]; a < c.offsets[u+1]; a++) if(comp[c.targets[a]] != comp[u]) dTo[fill[comp[u]]++] = comp[c.targets[a]];
+
+            // traversal 0 takes roots and children in order, traversal 1 in reverse
+            low = new int[K][nc];
+            post = new int[K][nc];
+            for(int k = 0; k < K; k++){
+                int[] lo = low[k], po = post[k];
+                Arrays.fill(po, -1);
+                boolean rev = (k & 1)==1;
+                int rank = 0;
+                for(int i = 0; i < nc; i++){
+                    int root = rev ? i : nc-1-i; // sources carry high numbers
+                    if(po[root] >= 0) continue;
+                    int top = 0;
+                    call[0] = root; it[root] = 0; po[root] = -2; lo[root] = Integer.MAX_VALUE;
+                    while(top >= 0){
+                        int x = call[top], deg = dOff[x+1] - dOff[x];
+                        if(it[x] < deg){
+                            int j = it[x]++;
+                            int y = dTo[rev ? dOff[x+1]-1-j : dOff[x]+j];
+                            if(po[y]==-1){ it[y] = 0; po[y] = -2; lo[y] = Integer.MAX_VALUE; call[++top] = y; }
+                            else lo[x] = Math.min(lo[x], lo[y]); // finished: y is below x in a DAG
+                            continue;
+                        }
+                        po[x] = rank++;
+                        lo[x] = Math.min(lo[x], po[x]);
+                        if(--top >= 0) lo[call[top]] = Math.min(lo[call[top]], lo[x]);
+                    }
+                }
+            }
+        }
+
+        boolean mayReach(int s, int d){
+            int x = comp[s], y = comp[d];
+            if(x==y) return true;
+            if(x < y) return false;
+            for(int k = 0; k < K; k++) if(post[k][y] > post[k][x] || post[k][y] < low[k][x]) return false;
+            return true;
+        }
+    }
+
+    // Landmark distance tables, node-major so one heuristic call reads two short runs:
+    // fromL[v*k + i] = d(L_i, v), toL[v*k + i] = d(v, L_i).
+    static final class Landmarks {
+        final int k;
+        // tables whose slack passes this share of the mean landmark distance are rebuilt
+        static final double WORN = 0.1;
+        final long version;  // cost version the tables were computed on
+        final double decreasedAt; // w.decreased of that version
+        final long reopenedAt;    // w.reopened of that version
+        final int[] nodes;
+        final double[] fromL, toL;
+        private double scale; // mean finite landmark distance
+
+        Landmarks(Csr c, CostVersion w, int want, LandmarkSelection sel){
+            version = w.version;
+            decreasedAt = w.decreased;
+            reopenedAt = w.reopened;
+            k = Math.max(1, Math.min(want, c.n));
+            nodes = new int[k];
+            fromL = new double[c.n*k];
+            toL = new double[c.n*k];
+            if(c.n==0) return;
+            double[] dist = new double[c.n];
+            int[] parent = new int[c.n], order = new int[c.n], heavy = new int[c.n];
+            double[] weight = new double[c.n];
+            boolean[] covered = new boolean[c.n];
+            Random rnd = new Random(c.n * 31L + k);
+            for(int i = 0; i < k; i++){
+                int pick = -1;
+                if(sel==LandmarkSelection.AVOID && i > 0){
+                    // avoid: grow a tree from a random root, weight nodes by how badly the current
+                    // landmarks bound them and walk down to the leaf of the heaviest uncovered subtree
+                    int r = rnd.nextInt(c.n);
+                    int settled = shortestPathTree(c, w, new int[]{r}, 1, false, dist, parent, order);
+                    Arrays.fill(weight, 0.0);
+                    Arrays.fill(covered, false);
+                    for(int j = 0; j < i; j++) covered[nodes[j]] = true;
+                    for(int j = settled-1; j >= 0; j--){
+                        int v = order[j];
+                        if(covered[v]) weight[v] = 0.0;
+                        else weight[v] += dist[v] - lowerBound(r, v, i);
+                        int p = parent[v];
+                        if(p >= 0){ weight[p] += weight[v]; covered[p] |= covered[v]; }
+                    }
+                    Arrays.fill(heavy, -1);
+                    for(int j = 0; j < settled; j++){
+                        int v = order[j], p = parent[v];
+                        if(p >= 0 && weight[v] > 0 && (heavy[p] < 0 || weight[v] > weight[heavy[p]])) heavy[p] = v;
+                    }
+                    if(weight[r] > 0){
+                        pick = r;
+                        while(heavy[pick] >= 0) pick = heavy[pick];
+                    }
+                }
+                if(pick < 0){
+                    // farthest: the node worst served by the landmarks chosen so far (unreached counts as farthest)
+                    if(i==0) pick = farthestFrom(c, w, new int[]{rnd.nextInt(c.n)}, 1, dist);
+                    else pick = farthestFrom(c, w, nodes, i, dist);
+                }
+                nodes[i] = pick;
+                fill(c, w, i, dist);
+            }
+            long finite = 0;
+            double sum = 0.0;
+            for(double x: fromL) if(x < INF){ sum += x; finite++; }
+            scale = finite==0 ? 0.0 : sum / finite;
+        }
+
+        // No path loses more than the total decrease since the tables were built, so bounds from
+        // version `version` minus that slack stay lower bounds under any later w that reopened no
+        // closed arc (which could make a pair reachable that the tables call unreachable).
+        boolean validFor(CostVersion w){ return version <= w.version && w.reopened==reopenedAt; }
+
+        double slack(CostVersion w){ return w.decreased - decreasedAt; }
+
+        boolean worn(CostVersion w){ return slack(w) > WORN * scale; }
+
+        private static int farthestFrom(Csr c, CostVersion w, int[] srcs, int ns, double[] dist){
+            shortestPathTree(c, w, srcs, ns, false, dist, null, null);
+            int best = 0;
+            for(int v = 1; v < c.n; v++) if(dist[v] > dist[best]) best = v;
+            return best;
+        }
+
+        private void fill(Csr c, CostVersion w, int i, double[] dist){
+            shortestPathTree(c, w, new int[]{nodes[i]}, 1, false, dist, null, null);
+            for(int v = 0; v < c.n; v++) fromL[v*k + i] = dist[v];
+            shortestPathTree(c, w, new int[]{nodes[i]}, 1, true, dist, null, null);
+            for(int v = 0; v < c.n; v++) toL[v*k + i] = dist[v];
+        }
+
+        // lower bound on d(v, t) from the triangle inequality; INF when some landmark proves t unreachable
+        double lowerBound(int v, int t){ return lowerBound(v, t, k); }
+
+        // the same under cost version w (validFor(w) must hold)
+        double lowerBound(int v, int t, CostVersion w){
+            double h = lowerBound(v, t, k), slack = slack(w);
+            return slack > 0 && h < INF ? Math.max(0.0, h - slack) : h;
+        }
+
+        private double lowerBound(int v, int t, int used){
+            double h = 0.0;
+            int bv = v*k, bt = t*k;
+            for(int i = 0; i < used; i++){
+                double fv = fromL[bv+i], ft = fromL[bt+i];
+                if(fv < INF){
+                    if(ft==INF) return INF; // L reaches v but not t
+                    if(ft - fv > h) h = ft - fv;
+                }
+                double tv = toL[bv+i], tt = toL[bt+i];
+                if(tt < INF){
+                    if(tv==INF) return INF; // t reaches L but v does not
+                    if(tv - tt > h) h = tv - tt;
+                }
+            }
+            return h;
+        }
+    }
+
+    // the arrays a Csr is built on; the ingest pipeline fills them directly, skipping the maps
+    static final class Layout {
+        final int[] ids, stage, offsets, targets;
+        final double[] cost, travelTime;
+        final Edge[] arcEdges; // null when there are no Edge objects yet
+        final int[] stageKeys, stageOff, stageMembers; // stage table, as in Csr
+
+        Layout(int[] ids, int[] stage, int[] offsets, int[] targets, double[] cost, double[] travelTime, Edge[] arcEdges,
+               int[] stageKeys, int[] stageOff, int[] stageMembers){
+            this.ids = ids; this.stage = stage; this.offsets = offsets; this.targets = targets;
+            this.cost = cost; this.travelTime = travelTime; this.arcEdges = arcEdges;
+            this.stageKeys = stageKeys; this.stageOff = stageOff; this.stageMembers = stageMembers;
+        }
+
+        // without Edge objects; each stage lists its members by ascending id
+        Layout(int[] ids, int[] stage, int[] offsets, int[] targets, double[] cost, double[] travelTime){
+            this.ids = ids; this.stage = stage; this.offsets = offsets; this.targets = targets;
+            this.cost = cost; this.travelTime = travelTime; this.arcEdges = null;
+            int n = ids.length;
+            int[] keys = stage.clone();
+            Arrays.sort(keys);
+            int k = 0;
+            for(int i = 0; i < n; i++) if(i==0 || keys[i] != keys[i-1]) keys[k++] = keys[i];
+            stageKeys = Arrays.copyOf(keys, k);
+            stageOff = new int[k+1];
+            for(int u = 0; u < n; u++) stageOff[Arrays.binarySearch(stageKeys, stage[u])+1]++;
+            for(int i = 0; i < k; i++) stageOff[i+1] += stageOff[i];
+            stageMembers = new int[n];
+            int[] fill = Arrays.copyOf(stageOff, k);
+            for(int u = 0; u < n; u++) stageMembers[fill[Arrays.binarySearch(stageKeys, stage[u])]++] = u;
+        }
+
+        static Layout of(Graph g){
+            int n = g.nodes.size();
+            int[] ids = new int[n];
+            int i = 0;
+            for(int id: g.nodes.keySet()) ids[i++] = id;
+            Arrays.sort(ids);
+            int[] stage = new int[n], offsets = new int[n+1];
+            for(int u = 0; u < n; u++){
+                stage[u] = g.nodes.get(ids[u]).stage;
+                offsets[u+1] = offsets[u] + g.adj.get(ids[u]).size();
+            }
+            int m = offsets[n];
+            int[] targets = new int[m];
+            double[] cost = new double[m], travelTime = new double[m];
+            Edge[] arcEdges = new Edge[m];
+            for(int u = 0, a = 0; u < n; u++){
+                for(Edge e: g.adj.get(ids[u])){
+                    targets[a] = Arrays.binarySearch(ids, e.to);
+                    cost[a] = e.cost;
+                    travelTime[a] = e.travelTime;
+                    arcEdges[a++] = e;
+                }
+            }
+            int[] stageKeys = new int[g.stageNodes.size()];
+            i = 0;
+            for(int st: g.stageNodes.keySet()) stageKeys[i++] = st;
+            Arrays.sort(stageKeys);
+            int[] stageOff = new int[stageKeys.length+1], stageMembers = new int[n];
+            for(int k = 0, p = 0; k < stageKeys.length; k++){
+                for(int id: g.stageNodes.get(stageKeys[k])) stageMembers[p++] = Arrays.binarySearch(ids, id);
+                stageOff[k+1] = p;
+            }
+            return new Layout(ids, stage, offsets, targets, cost, travelTime, arcEdges, stageKeys, stageOff, stageMembers);
+        }
+    }
+
+    // Compressed-sparse-row snapshot of the graph. Nodes get dense indices 0..n-1 (ids ascending);
+    // arcs of u live in [offsets[u], offsets[u+1]) of the flat targets/travelTime columns, and the
+    // cost column is read through the currently published CostVersion.
+    static final class Csr {
+        final int n;
+        final int[] ids;                 // index -> node id (sorted)
+        final int[] stage;               // index -> stage
+        final int[] offsets, targets;    // targets hold indices, not ids
+        final double[] travelTime;
+        volatile CostVersion costs;      // readers pin this once per query
+        final ArcIndex arcIndex;         // (from id, to id) -> first arc slot
+        final int[] nextParallel;        // next arc slot with the same (from, to), or -1
+        // slot -> mutable Edge, kept in step for rebuilds; null until the graph's maps exist (written
+        // under the graph monitor, like every cost update)
+        Edge[] arcEdges;
+        // reverse index: arcs entering v come from rSources[rOffsets[v] .. rOffsets[v+1]); rArcs holds
+        // the matching forward slot so cost updates are seen by both directions
+        final int[] rOffsets, rSources, rArcs;
+        volatile Landmarks landmarks;    // ALT tables for this view, if preprocessed
+        volatile ContractionHierarchy ch; // contraction hierarchy topology for this view, if built
+        volatile Reachability reach;     // reachability filter for this view, if built
+        volatile HubLabels hubs;         // hub labels for this view, if built or attached
+        volatile DenseStageGraph dense;  // dense stage blocks for the DP, when denseStages holds
+        // stage table: members of stageKeys[i] are stageMembers[stageOff[i] .. stageOff[i+1])
+        final int[] stageKeys, stageOff, stageMembers;
+        final boolean[] stageLocal;      // stage slot i has an arc between two of its own members
+        final boolean consecutiveStages; // every arc joins a stage to the next one in the stage table
+        final boolean denseStages;       // consecutive, and the arcs fill at least DENSE_FILL of the blocks
+        // min-plus over the blocks breaks even with the CSR walk near half fill (1000-wide stages)
+        static final double DENSE_FILL = 0.6;
+        // kinds of cache rebuilt in the background, at most one build of each kind in flight
+        static final int BUILD_DENSE = 1, BUILD_LANDMARKS = 2, BUILD_HIERARCHY = 4;
+        private final AtomicInteger building = new AtomicInteger();
+
+        Csr(Graph g, long version){ this(version, Layout.of(g)); }
+
+        // l must list the nodes by ascending id and each node's arcs in adjacency-list order
+        Csr(long version, Layout l){
+            n = l.ids.length;
+            ids = l.ids;
+            stage = l.stage;
+            offsets = l.offsets;
+            targets = l.targets;
+            travelTime = l.travelTime;
+            arcEdges = l.arcEdges;
+            int m = offsets[n];
+            nextParallel = new int[m];
+            arcIndex = new ArcIndex(m);
+            for(int a = 0, u = 0; a < m; a++){
+                while(offsets[u+1] <= a) u++;
+                nextParallel[a] = -1;
+                int first = arcIndex.putIfAbsent(ids[u], ids[targets[a]], a);
+                if(first >= 0){ // parallel arc: append to the chain
+                    while(nextParallel[first] >= 0) first = nextParallel[first];
+                    nextParallel[first] = a;
+                }
+            }
+            costs = new CostVersion(l.cost, version);
+            rOffsets = new int[n+1];
+            for(int a = 0; a < m; a++) rOffsets[targets[a]+1]++;
+            for(int v = 0; v < n; v++) rOffsets[v+1] += rOffsets[v];
+            rSources = new int[m];
+            rArcs = new int[m];
+            int[] fill = Arrays.copyOf(rOffsets, n);
+            for(int u = 0; u < n; u++){
+                for(int a = offsets[u]; a < offsets[u+1]; a++){
+                    int r = fill[targets[a]]++;
+                    rSources[r] = u;
+                    rArcs[r] = a;
+                }
+            }
+
+            stageKeys = l.stageKeys;
+            stageOff = l.stageOff;
+            stageMembers = l.stageMembers;
+            stageLocal = new boolean[stageKeys.length];
+            for(int k = 0; k < stageKeys.length; k++){
+                for(int p = stageOff[k]; p < stageOff[k+1] && !stageLocal[k]; p++){
+                    int u = stageMembers[p];
+                    for(int a = offsets[u]; a < offsets[u+1]; a++){
+                        if(stage[targets[a]]==stage[u]){ stageLocal[k] = true; break; }
+                    }
+                }
+            }
+            boolean consecutive = true;
+            long cells = 0;
+            for(int k = 0; k < stageKeys.length && consecutive; k++){
+                int next = k+1 < stageKeys.length ? stageKeys[k+1] : Integer.MIN_VALUE;
+                if(k+1 < stageKeys.length) cells += (long)(stageOff[k+1] - stageOff[k]) * (stageOff[k+2] - stageOff[k+1]);
+                for(int p = stageOff[k]; p < stageOff[k+1] && consecutive; p++){
+                    int u = stageMembers[p];
+                    for(int a = offsets[u]; a < offsets[u+1]; a++) if(stage[targets[a]] != next){ consecutive = false; break; }
+                }
+            }
+            consecutiveStages = consecutive;
+            denseStages = consecutive && cells > 0 && m >= DENSE_FILL * cells;
+        }
+
+        // runs build on the common pool unless a build of the same kind is still running
+        void rebuild(int kind, Runnable build){
+            int cur;
+            do{
+                cur = building.get();
+                if((cur & kind) != 0) return;
+            } while(!building.compareAndSet(cur, cur | kind));
+            ForkJoinPool.commonPool().execute(() -> {
+                try{ build.run(); }
+                finally{ building.getAndUpdate(b -> b & ~kind); }
+            });
+        }
+
+        int index(int id){
+            int i = Arrays.binarySearch(ids, id);
+            return i<0 ? -1 : i;
+        }
+
+        // node whose arc range holds slot a
+        int arcSource(int a){
+            int lo = 0, hi = n-1;
+            while(lo < hi){
+                int mid = (lo + hi + 1) >>> 1;
+                if(offsets[mid] <= a) lo = mid; else hi = mid-1;
+            }
+            return lo;
+        }
+
+        // write cost into every from -> to arc through w; returns how many arcs matched
+        int setCost(CostVersion.Writer w, int from, int to, double cost){
+            int count = 0;
+            for(int a = arcIndex.get(from, to); a >= 0; a = nextParallel[a]){
+                w.set(a, cost);
+                if(arcEdges != null) arcEdges[a].cost = cost;
+                count++;
+            }
+            return count;
+        }
+
+        // first slot of the stage table whose key is >= st
+        int stageSlot(int st){
+            int i = Arrays.binarySearch(stageKeys, st);
+            return i<0 ? -i-1 : i;
+        }
+
+        // walk parent links back from d; returns node ids s..d, or null if the chain is broken
+        int[] tracePath(SearchSpace sp, int s, int d){
+            int len = 1;
+            for(int cur = d; cur != s; cur = sp.parent(cur)){
+                if(sp.parent(cur) < 0) return null;
+                len++;
+            }
+            int[] path = new int[len];
+            for(int cur = d, k = len-1; k >= 0; cur = sp.parent(cur)) path[k--] = ids[cur];
+            return path;
+        }
+    }
+
+    static class Result {
+        final boolean ok;
+        final double cost;
+        final List<Integer> path; // read-only; empty for cost-only results
+        final String message;
+        final double bound; // proven lower bound on the cost: cost itself once ok, INF when there is no path
+        Result(double cost, List<Integer> path){ this.ok=true; this.cost=cost; this.path=path; this.message="ok"; this.bound=cost; }
+        Result(double cost, int[] path){ this(cost, ids(path)); }
+        // hops runs on the first read of path and may only capture immutable state (the Csr view, a
+        // pinned CostVersion, labels), never per-thread search spaces. A null from it reads as empty.
+        Result(double cost, Supplier<int[]> hops){ this(cost, new PathView(null, hops)); }
+        Result(boolean ok, double cost, List<Integer> p, String msg){ this(ok, cost, p, msg, ok ? cost : Double.POSITIVE_INFINITY); }
+        private Result(boolean ok, double cost, List<Integer> p, String msg, double bound){ this.ok=ok; this.cost=cost; this.path=p; this.message=msg; this.bound=bound; }
+        static Result empty(String msg){ return new Result(false, Double.POSITIVE_INFINITY, Collections.emptyList(), msg); }
+        // stopped by its deadline: the true cost lies in [bound, best]; best is INF if the destination was not reached yet
+        static Result timeout(double best, double bound){ return new Result(false, best, Collections.emptyList(), TIMEOUT, bound); }
+        static final String TIMEOUT = "timeout";
+        // a suboptimal answer from a bounded search: the optimum lies in [bound, cost]
+        static Result bounded(double cost, int[] path, double bound){ return new Result(true, cost, ids(path), "ok", bound); }
+        // proven worst-case ratio of cost to the optimum; 1 for exact answers
+        double suboptimality(){ return !ok || bound==cost ? 1.0 : bound==0 ? INF : cost / bound; }
+        boolean timedOut(){ return message==TIMEOUT; }
+        static Result costOnly(double cost){ return new Result(true, cost, Collections.emptyList(), "cost only"); }
+        // read-only List view over a primitive path; values are boxed only when a caller reads them
+        static List<Integer> ids(int[] path){ return new PathView(path, null); }
+
+        // node ids along the path, without boxing
+        int[] pathIds(){
+            if(path instanceof PathView) return ((PathView)path).hops().clone();
+            int[] out = new int[path.size()];
+            for(int i = 0; i < out.length; i++) out[i] = path.get(i);
+            return out;
+        }
+
+        public String toString(){
+            if(timedOut()) return "TIMEOUT: cost in ["+bound+", "+cost+"]";
+            if(!ok) return "NO_PATH: "+message;
+            return "cost="+cost+" path="+path;
+        }
+
+        private static final class PathView extends AbstractList<Integer> {
+            private volatile int[] hops;
+            private Supplier<int[]> source; // cleared once hops is built
+
+            PathView(int[] hops, Supplier<int[]> source){ this.hops = hops; this.source = source; }
+
+            int[] hops(){
+                int[] h = hops;
+                if(h==null){
+                    synchronized(this){
+                        if((h = hops)==null){
+                            h = source.get();
+                            hops = h = h==null ? new int[0] : h;
+                            source = null;
+                        }
+                    }
+                }
+                return h;
+            }
+
+            public Integer get(int i){ return hops()[i]; }
+            public int size(){ return hops().length; }
+        }
+    }
+
+    static class Query {
+        final int src, dst; final boolean enforceStages; final Mode mode;
+        final boolean costOnly; // the answer carries no path, so DP and Dijkstra skip parent tracking
+        final double epsilon;   // BOUNDED only: accepted suboptimality, 0.05 = within 5% of optimal
+        Query(int s,int d, boolean e){ this(s, d, e ? Mode.DP : Mode.DIJKSTRA); }
+        Query(int s,int d, Mode m){ this(s, d, m, false); }
+        Query(int s,int d, Mode m, boolean costOnly){ this(s, d, m, costOnly, 0.0); }
+        Query(int s,int d, Mode m, boolean costOnly, double epsilon){
+            if(!(epsilon >= 0)) throw new IllegalArgumentException("epsilon must be >= 0");
+            src=s; dst=d; mode=m; enforceStages = m==Mode.DP; this.costOnly = costOnly; this.epsilon = epsilon;
+        }
+        static Query bounded(int s,int d, double epsilon){ return new Query(s, d, Mode.BOUNDED, false, epsilon); }
+    }
+}
+
+// Multistage graph for nearly complete bipartite stages: the arcs from stage k to stage k+1 live in
+// one dense cost block (INF = no arc) instead of Edge objects, and the DP is a chain of min-plus
+// vector x matrix products. Blocks are stored tile-major, TILE next-stage columns at a time, so the
+// inner loop streams one contiguous row slice into an output tile that stays in L1.
+class DenseStageGraph {
+    static final double INF = Double.POSITIVE_INFINITY;
+    static final int TILE = 256;
+
+    final int[][] stageIds;  // stage k -> node ids in row/column order
+    final double[][] blocks; // k -> stage k x stage k+1 costs, tile-major
+    private final Map<Integer, int[]> where = new HashMap<>(); // id -> {stage, position}
+    long version = -1; // cost version mirrored when built by of(), -1 otherwise
+
+    DenseStageGraph(int[][] stageIds){
+        this.stageIds = stageIds;
+        for(int k = 0; k < stageIds.length; k++){
+            for(int p = 0; p < stageIds[k].length; p++){
+                if(where.put(stageIds[k][p], new int[]{k, p}) != null) throw new IllegalArgumentException("duplicate node " + stageIds[k][p]);
+            }
+        }
+        blocks = new double[Math.max(0, stageIds.length-1)][];
+        for(int k = 0; k < blocks.length; k++){
+            blocks[k] = new double[stageIds[k].length * stageIds[k+1].length];
+            Arrays.fill(blocks[k], INF);
+        }
+    }
+
+    // Stage blocks of a Graph view whose arcs all join a stage to the next one in its stage table.
+    // Stage k lists its members in stage-table order and parallel arcs keep the cheapest cost, so the
+    // DP here returns the same cost and path as Graph.findMinCostRouteDP.
+    static DenseStageGraph of(Graph.Csr c, Graph.CostVersion w){
+        if(!c.consecutiveStages) throw new IllegalArgumentException("arcs must join consecutive stages");
+        int[][] stageIds = new int[c.stageKeys.length][];
+        int[] pos = new int[c.n];
+        for(int k = 0; k < stageIds.length; k++){
+            stageIds[k] = new int[c.stageOff[k+1] - c.stageOff[k]];
+            for(int p = c.stageOff[k]; p < c.stageOff[k+1]; p++){
+                int v = c.stageMembers[p];
+                stageIds[k][p - c.stageOff[k]] = c.ids[v];
+                pos[v] = p - c.stageOff[k];
+            }
+        }
+        DenseStageGraph g = new DenseStageGraph(stageIds);
+        for(int k = 0; k+1 < stageIds.length; k++){
+            for(int p = c.stageOff[k]; p < c.stageOff[k+1]; p++){
+                int u = c.stageMembers[p];
+                for(int a = c.offsets[u]; a < c.offsets[u+1]; a++){
+                    int at = g.slot(k, p - c.stageOff[k], pos[c.targets[a]]);
+                    if(w.get(a) < g.blocks[k][at]) g.blocks[k][at] = w.get(a);
+                }
+            }
+        }
+        g.version = w.version;
+        return g;
+    }
+
+    // slot of (row i, column j) in block k
+    private int slot(int k, int i, int j){
+        int rows = stageIds[k].length, cols = stageIds[k+1].length;
+        int t0 = j - j % TILE, width = Math.min(TILE, cols - t0);
+        return t0 * rows + i * width + (j - t0);
+    }
+
+    void setCost(int from, int to, double cost){
+        int[] a = where.get(from), b = where.get(to);
+        if(a==null || b==null) throw new RuntimeException("Unknown node");
+        if(b[0] != a[0]+1) throw new IllegalArgumentException("arcs must join consecutive stages");
+        blocks[a[0]][slot(a[0], a[1], b[1])] = cost;
+    }
+
+    // load stage k -> k+1 costs from a row-major rows x cols matrix
+    void setBlock(int k, double[] rowMajor){
+        int rows = stageIds[k].length, cols = stageIds[k+1].length;
+        if(rowMajor.length != rows * cols) throw new IllegalArgumentException("expected " + rows + "x" + cols);
+        for(int i = 0; i < rows; i++)
+            for(int j = 0; j < cols; j++) blocks[k][slot(k, i, j)] = rowMajor[i * cols + j];
+    }
+
+    Graph.Result findMinCostRouteDP(int sourceId, int destId){
+        int[] a = where.get(sourceId), b = where.get(destId);
+        if(a==null || b==null) return Graph.Result.empty("invalid nodes");
+        if(a[0] > b[0]) return Graph.Result.empty("source after dest");
+        return route(sweep(a, b[0]), a, b);
+    }
+
+    // {stage, position} of a node, or null if unknown
+    int[] locate(int id){ return where.get(id); }
+
+    // cost vectors from the source at a = {stage, position}: entry k covers stage a[0]+k, up to stage end
+    double[][] sweep(int[] a, int end){
+        double[][] dist = new double[end-a[0]+1][];
+        dist[0] = new double[stageIds[a[0]].length];
+        Arrays.fill(dist[0], INF);
+        dist[0][a[1]] = 0.0;
+        for(int k = a[0]; k < end; k++) dist[k-a[0]+1] = minPlus(dist[k-a[0]], blocks[k], stageIds[k+1].length);
+        return dist;
+    }
+
+    // the route to b = {stage, position} out of a sweep from a that reaches b's stage
+    Graph.Result route(double[][] dist, int[] a, int[] b){
+        double cost = dist[b[0]-a[0]][b[1]];
+        if(cost==INF) return Graph.Result.empty("no path");
+        // walk back: the first row reproducing each column's minimum is its predecessor
+        int[] path = new int[b[0]-a[0]+1];
+        int j = b[1];
+        path[path.length-1] = stageIds[b[0]][j];
+        for(int k = b[0]-1; k >= a[0]; k--){
+            double[] x = dist[k-a[0]];
+            double want = dist[k-a[0]+1][j];
+            int i = 0;
+            while(x[i]==INF || x[i] + blocks[k][slot(k, i, j)] != want) i++;
+            path[k-a[0]] = stageIds[k][i];
+            j = i;
+        }
+        return new Graph.Result(cost, path);
+    }
+
+    // y[j] = min_i x[i] + m[i][j], one column tile at a time; unreached rows are skipped
+    static double[] minPlus(double[] x, double[] m, int cols){
+        int rows = x.length;
+        double[] y = new double[cols];
+        Arrays.fill(y, INF);
+        for(int t0 = 0; t0 < cols; t0 += TILE){
+            int width = Math.min(TILE, cols - t0), base = t0 * rows;
+            for(int i = 0; i < rows; i++){
+                double xi = x[i];
+                if(xi==INF) continue;
+                int p = base + i * width;
+                for(int j = 0; j < width; j++){ double v = xi + m[p+j]; if(v < y[t0+j]) y[t0+j] = v; }
+            }
+        }
+        return y;
+    }
+}
+
+// Read-only graph over a file written by Graph.writeBinary. Every column stays in its mapping, so
+// opening is a few mmap calls and the first queries fault the pages in; nothing is copied to the
+// heap. Layout, little-endian: a 32-byte header {MAGIC, FORMAT_VERSION, n, m, stage count}, then
+// the int columns ids, stage, stageKeys, stageOff, stageMembers, offsets, targets and the double
+// columns cost, travelTime, with the same meaning as in Graph.Csr.
+class MappedGraph {
+    static final double INF = Double.POSITIVE_INFINITY;
+    static final int MAGIC = 0x44414147; // "DAAG"
+    static final int FORMAT_VERSION = 1;
+    private static final int HEADER_BYTES = 32;
+
+    final int n, m;
+    private final IntBuffer ids, stage, stageKeys, stageOff, stageMembers, offsets, targets;
+    private final DoubleBuffer cost, travelTime;
+
+    private MappedGraph(FileChannel ch, ByteBuffer head) throws IOException {
+        n = head.getInt(8);
+        m = head.getInt(12);
+        int k = head.getInt(16);
+        long pos = HEADER_BYTES;
+        ids = BinaryIO.mapInts(ch, pos, n);              pos += 4L*n;
+        stage = BinaryIO.mapInts(ch, pos, n);            pos += 4L*n;
+        stageKeys = BinaryIO.mapInts(ch, pos, k);        pos += 4L*k;
+        stageOff = BinaryIO.mapInts(ch, pos, k+1);       pos += 4L*(k+1);
+        stageMembers = BinaryIO.mapInts(ch, pos, n);     pos += 4L*n;
+        offsets = BinaryIO.mapInts(ch, pos, n+1);        pos += 4L*(n+1);
+        targets = BinaryIO.mapInts(ch, pos, m);          pos += 4L*m;
+        cost = BinaryIO.mapDoubles(ch, pos, m);          pos += 8L*m;
+        travelTime = BinaryIO.mapDoubles(ch, pos, m);    pos += 8L*m;
+        if(pos != ch.size()) throw new IOException("graph file is " + ch.size() + " bytes, header implies " + pos);
+    }
+
+    static MappedGraph open(Path file) throws IOException {
+        try(FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)){
+            if(ch.size() < HEADER_BYTES) throw new IOException("not a graph file: " + file);
+            ByteBuffer head = ch.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            if(head.getInt(0) != MAGIC) throw new IOException("not a graph file: " + file);
+            if(head.getInt(4) != FORMAT_VERSION) throw new IOException("unsupported graph format version " + head.getInt(4));
+            return new MappedGraph(ch, head); // mappings stay valid after the channel closes
+        }
+    }
+
+    static void write(Graph.Csr c, Graph.CostVersion w, Path file) throws IOException {
+        int m = c.targets.length;
+        double[] cost = new double[m];
+        for(int a = 0; a < m; a++) cost[a] = w.get(a);
+        try(FileChannel ch = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)){
+            ByteBuffer head = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            head.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(c.n).putInt(m).putInt(c.stageKeys.length).position(HEADER_BYTES);
+            head.flip();
+            while(head.hasRemaining()) ch.write(head);
+            for(int[] col: new int[][]{c.ids, c.stage, c.stageKeys, c.stageOff, c.stageMembers, c.offsets, c.targets})
+                BinaryIO.writeInts(ch, IntBuffer.wrap(col));
+            BinaryIO.writeDoubles(ch, DoubleBuffer.wrap(cost));
+            BinaryIO.writeDoubles(ch, DoubleBuffer.wrap(c.travelTime));
+        }
+    }
+
+    int index(int id){
+        int lo = 0, hi = n-1;
+        while(lo <= hi){
+            int mid = (lo + hi) >>> 1, x = ids.get(mid);
+            if(x < id) lo = mid+1; else if(x > id) hi = mid-1; else return mid;
+        }
+        return -1;
+    }
+
+    // same search and answers as Graph.findShortestPathDijkstra on a binary heap
+    Graph.Result findShortestPathDijkstra(int sourceId, int destId){
+        int s = index(sourceId), d = index(destId);
+        if(s<0 || d<0) return Graph.Result.empty("invalid nodes");
+        Graph.SearchSpace sp = Graph.QueryContext.get(n).fwd;
+        DHeap pq = sp.heap;
+        sp.set(s, 0.0, -1);
+        pq.push(s, 0.0);
+        while(!pq.isEmpty()){
+            int u = pq.pop();
+            if(u==d) break;
+            double dU = sp.dist(u);
+            for(int a = offsets.get(u), end = offsets.get(u+1); a < end; a++){
+                int v = targets.get(a);
+                double nd = dU + cost.get(a);
+                if(nd < sp.dist(v)){
+                    sp.set(v, nd, u);
+                    pq.push(v, nd);
+                }
+            }
+        }
+        pq.clear();
+        if(sp.dist(d)==INF) return Graph.Result.empty("no path");
+        return new Graph.Result(sp.dist(d), trace(sp, s, d));
+    }
+
+    // same stage walk and answers as Graph.findMinCostRouteDP
+    Graph.Result findMinCostRouteDP(int sourceId, int destId){
+        int s = index(sourceId), d = index(destId);
+        if(s<0 || d<0) return Graph.Result.empty("invalid nodes");
+        int end = stage.get(d);
+        if(stage.get(s) > end) return Graph.Result.empty("source after dest");
+        Graph.SearchSpace dp = Graph.QueryContext.get(n).fwd;
+        dp.set(s, 0.0, -1);
+        int k = stageKeys.limit(), i = 0;
+        while(i < k && stageKeys.get(i) < stage.get(s)) i++;
+        for(; i < k && stageKeys.get(i) <= end; i++){
+            int st = stageKeys.get(i);
+            for(int p = stageOff.get(i), pe = stageOff.get(i+1); p < pe; p++){
+                int u = stageMembers.get(p);
+                double costU = dp.dist(u);
+                if(costU==INF) continue;
+                for(int a = offsets.get(u), ae = offsets.get(u+1); a < ae; a++){
+                    int v = targets.get(a);
+                    if(stage.get(v) < st) continue;
+                    double nc = costU + cost.get(a);
+                    if(nc < dp.dist(v)) dp.set(v, nc, u);
+                }
+            }
+        }
+        if(dp.dist(d)==INF) return Graph.Result.empty("no path");
+        return new Graph.Result(dp.dist(d), trace(dp, s, d));
+    }
+
+    private int[] trace(Graph.SearchSpace sp, int s, int d){
+        int len = 1;
+        for(int cur = d; cur != s; cur = sp.parent(cur)) len++;
+        int[] path = new int[len];
+        for(int cur = d, k = len-1; k >= 0; cur = sp.parent(cur)) path[k--] = ids.get(cur);
+        return path;
+    }
+}
+
+public class Assignment5 {
+    public static void main(String[] args) {
+        Graph g = new Graph();
+
+        // create nodes across 4 stages: 0(source stage),1,2,3(dest stage)
+        g.addNode(1,0); g.addNode(2,1); g.addNode(3,1); g.addNode(4,2); g.addNode(5,2); g.addNode(6,3);
+
+        // add edges: from->to, cost, travelTime (time optional)
+        g.addEdge(1,2,5,10); g.addEdge(1,3,6,12);
+        g.addEdge(2,4,4,8); g.addEdge(2,5,7,14);
+        g.addEdge(3,4,3,6); g.addEdge(3,5,5,10);
+        g.addEdge(4,6,6,12); g.addEdge(5,6,4,9);
+
+        // alternative direct leap skipping a stage (allowed but must still progress)
+        g.addEdge(1,4,12,24); // costlier but possible
+
+        // DP that enforces passing nodes in each stage
+        Graph.Result r1 = g.findMinCostRouteDP(1,6);
+        System.out.println("DP multistage route: " + r1);
+
+        // Dijkstra (no stage constraint)
+        Graph.Result r2 = g.findShortestPathDijkstra(1,6);
+        System.out.println("Dijkstra route: " + r2);
+        System.out.println("Bidirectional route: " + g.findShortestPathBidirectional(1,6));
+        System.out.println("Pareto (cost, time) routes: " + g.findParetoRoutes(1,6));
+
+        // depot 1 keeps a live shortest-path tree across updates
+        Graph.DynamicTree depot = g.trackTree(1);
+        long before = g.costVersion();
+
+        // simulate real-time update: road closure increases cost of edge 3->4
+        g.updateEdgeCost(3,4, 20.0);
+        System.out.println("Trees changed by closure: " + Arrays.toString(g.changedTrees(before)) + ", depot route to 5: " + depot.route(5));
+        Graph.Result r3 = g.findMinCostRouteDP(1,6);
+        System.out.println("After update DP route: " + r3);
+        System.out.println("After update CH route: " + g.findShortestPathCH(1,6));
+
+        // Batch requests
+        List<Graph.Query> qs = Arrays.asList(
+            new Graph.Query(1,6,true),
+            new Graph.Query(1,6,false),
+            new Graph.Query(1,6,Graph.Mode.ALT)
+        );
+        List<Graph.Result> batchRes = g.processBatchRequests(qs);
+        System.out.println("Batch results: "+batchRes);
+
+        // many-to-many cost matrix, row-major
+        double[] matrix = g.distanceMatrix(new int[]{1,2}, new int[]{5,6});
+        System.out.println("Distance matrix {1,2}x{5,6}: "+Arrays.toString(matrix));
+    }
+}
+